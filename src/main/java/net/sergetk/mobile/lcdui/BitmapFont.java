@@ -20,7 +20,6 @@
  */
 package net.sergetk.mobile.lcdui;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,6 +27,7 @@ import java.io.InputStream;
 import javax.microedition.lcdui.Font;
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
+import javax.microedition.lcdui.game.Sprite;
 
 import org.apache.commons.lang.IntHashMap;
 import org.edc.sstone.cache.CacheEntry;
@@ -77,6 +77,21 @@ import org.edc.sstone.util.StdLib;
  *    font files that do not use the exact encoding supported by the png-header manipualtion
  *    code written by SergeTK. This is just a fallback
  *  - Refactored font caching code
+ *  - Replaced the linear characterMap scan in charIndex() with a glyph index built once at load
+ *    time and shared by all style variants
+ *  - Added per-variant advance tables (glyph width + indent + bold increment), cached style
+ *    variants, and substringFit()/charsFit() to find a line-break offset in a single pass
+ *  - Glyphs are drawn with Graphics.drawRegion() instead of clipRect()/drawImage()/setClip() per
+ *    glyph, and glyphs that are adjacent both in the font image and on screen are drawn as one
+ *    region
+ *  - Added packAtlas() to stack the glyph images of several fonts into one image for black text.
+ *    Colors are still rendered per font from its palette
+ *  - Added a v2 font file format with precomputed glyph coordinates, a sorted character index
+ *    and an advance table (see FORMAT_V2). v1 files are still read.
+ *  - The PNG bytes and the PLTE chunk are kept after loading, so colorizing a font rewrites the
+ *    palette in memory instead of re-reading the font resource from the jar
+ *  - crc32() uses a 256-entry table, and palette colorization uses the brightness of each palette
+ *    entry computed once per font and fixed-point math instead of divisions
  * </pre>
  * 
  * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
@@ -85,11 +100,11 @@ import org.edc.sstone.util.StdLib;
 public class BitmapFont {
     private final static int DEFAULT_COLOR_CACHE_CAPACITY = 5;
 
-    private String fontFilePath;
     private Image baseImage;
     private Image currentImage;
 
     private int height;
+    private int glyphHeight;
     private int baseline;
     private int xIndent;
     private int yIndent;
@@ -99,17 +114,83 @@ public class BitmapFont {
     private int currentColor;
     private int charWidthIncrement = 0;
 
-    private String characterMap;
+    /*
+     * The advance of each glyph for this style variant, i.e. widths[i] + xIndent +
+     * charWidthIncrement. unknownAdvance is the advance of a space or an unmapped character.
+     */
+    private int[] advances;
+    private int unknownAdvance;
+
+    /*
+     * Style variants indexed by style (plain, bold, italic and underlined combinations). Shared by
+     * all variants of a font so getFont(int) does not create a new variant on every call.
+     */
+    private BitmapFont[] variants;
+
+    /**
+     * Characters below this code point are looked up in a dense table. This covers ASCII,
+     * Latin-1 and the Latin Extended-A/B blocks, which is where most accented characters live.
+     */
+    private static final int DENSE_INDEX_SIZE = 0x250;
+
+    /**
+     * Font file format version 2. After the same 6-byte header as v1 (version, height, baseline,
+     * xIndent, yIndent, spaceWidth), a v2 file stores everything the v1 loader has to compute:
+     * 
+     * <pre>
+     * short              glyphCount
+     * short              indexCount
+     * char[indexCount]   mapped characters in ascending order (space is never mapped)
+     * short[indexCount]  the glyph index of each of those characters
+     * short[glyphCount]  x of each glyph in the image
+     * short[glyphCount]  y of each glyph in the image
+     * byte[glyphCount]   width of each glyph (aliases already resolved)
+     * byte[glyphCount]   advance of each glyph in the plain style (width + xIndent)
+     * short              pngLength
+     * byte[pngLength]    the glyph image
+     * </pre>
+     * 
+     * All of the tables are read with a single read and no per-glyph computation.
+     */
+    public static final byte FORMAT_V2 = 2;
+
     private int[] widths, x, y;
+
+    /*
+     * The glyph index. denseIndex maps a character below DENSE_INDEX_SIZE directly to its glyph
+     * index (or -1). Characters above that range are binary-searched in sparseChars, with the
+     * glyph index at the same position in sparseIndexes.
+     */
+    private short[] denseIndex;
+    private char[] sparseChars;
+    private short[] sparseIndexes;
     protected byte version;
 
-    private short pngOffset;
+    /*
+     * The glyph PNG, which is reused as the buffer for colorized copies, and the brightness (0-255)
+     * of each entry of its original palette. pngData is null if the image has no PLTE chunk. All
+     * variants share these, so the buffer is locked while it is being rewritten.
+     */
+    private byte[] pngData;
+    private int paletteOffset;
+    private int[] paletteBrightness;
 
     /*
      * TODO: replace LRU with LFU cache algorithm?
      */
     private CacheEntry[] colorCache;
-    private final IntHashMap colorUsageCounts;
+    private IntHashMap colorUsageCounts;
+
+    /*
+     * true if baseImage is an atlas shared with other fonts (see packAtlas). The glyphs of this font
+     * are the imageWidth x imageHeight region at imageY of baseImage. Colorized images only hold
+     * this font's glyphs, so currentImageY is imageY while the font is black and 0 otherwise.
+     */
+    private boolean packed;
+    private int imageY;
+    private int imageWidth;
+    private int imageHeight;
+    private int currentImageY;
 
     private boolean italic;
     private boolean bold;
@@ -136,29 +217,39 @@ public class BitmapFont {
     }
 
     private BitmapFont(BitmapFont font, int style) {
-        this.fontFilePath = font.fontFilePath;
         this.currentImage = this.baseImage = font.baseImage;
 
         this.height = font.height;
+        this.glyphHeight = font.glyphHeight;
         this.baseline = font.baseline;
         this.xIndent = font.xIndent;
         this.yIndent = font.yIndent;
         this.spaceWidth = font.spaceWidth;
-        this.pngOffset = font.pngOffset;
+        this.pngData = font.pngData;
+        this.paletteOffset = font.paletteOffset;
+        this.paletteBrightness = font.paletteBrightness;
 
         this.style = style;
         this.italic = (style & Font.STYLE_ITALIC) != 0;
         this.bold = (style & Font.STYLE_BOLD) != 0;
         this.currentColor = 0;
 
-        this.characterMap = font.characterMap;
+        this.denseIndex = font.denseIndex;
+        this.sparseChars = font.sparseChars;
+        this.sparseIndexes = font.sparseIndexes;
         this.widths = font.widths;
         this.x = font.x;
         this.y = font.y;
 
         this.colorCache = font.colorCache;
         this.colorUsageCounts = font.colorUsageCounts;
+        this.packed = font.packed;
+        this.imageY = this.currentImageY = font.imageY;
+        this.imageWidth = font.imageWidth;
+        this.imageHeight = font.imageHeight;
         this.charWidthIncrement = bold ? 1 : 0;
+        this.variants = font.variants;
+        buildAdvances();
     }
 
     /**
@@ -194,10 +285,6 @@ public class BitmapFont {
 
             DataInputStream data = new DataInputStream(input);
 
-            int streamLen = data.available();
-
-            this.fontFilePath = fontPath;
-
             this.version = data.readByte();
             this.height = data.readByte();
             this.baseline = data.readByte();
@@ -205,49 +292,26 @@ public class BitmapFont {
             this.yIndent = data.readByte();
             this.spaceWidth = data.readByte();
 
-            characterMap = data.readUTF();
-            int count = characterMap.length();
-
-            // read characters widthes
-            this.widths = new int[count];
-            this.x = new int[count];
-            this.y = new int[count];
-
-            for (int i = 0; i < count; i++) {
-                widths[i] = data.readByte();
+            if (version >= FORMAT_V2) {
+                readGlyphTablesV2(data);
+            } else {
+                readGlyphTablesV1(data);
             }
 
-            baseImage = null;
-
-            // the original implementation supported multiple-images
-            // in the font file, but this is not necessary. Because I do
-            // not want to change the encoding, I am leaving this byte that
-            // used to represent the number of PNGs in the file
-            data.skipBytes(1);
-
             short pngLen = data.readShort();
             byte[] buffer = new byte[pngLen];
 
-            data.read(buffer, 0, pngLen);
-            this.pngOffset = (short) (streamLen - pngLen);
+            data.readFully(buffer, 0, pngLen);
             baseImage = Image.createImage(buffer, 0, pngLen);
+            retainPalette(buffer);
             currentImage = baseImage;
+            imageWidth = baseImage.getWidth();
+            imageHeight = baseImage.getHeight();
+            // drawRegion() throws if the region exceeds the source image
+            glyphHeight = Math.min(height, baseImage.getHeight());
 
-            // calculate characters coordinates
-            int curX = 0, curY = 0;
-            for (int i = 0; i < count; i++) {
-                if (widths[i] < 0) {
-                    // negative width points to another character
-                    int sourceIndex = -widths[i];
-                    widths[i] = widths[sourceIndex];
-                    x[i] = x[sourceIndex];
-                    y[i] = y[sourceIndex];
-                } else {
-                    x[i] = curX;
-                    y[i] = curY;
-                    curX += widths[i];
-                }
-            }
+            variants = new BitmapFont[STYLE_MASK + 1];
+            variants[Font.STYLE_PLAIN] = this;
 
             if (defaultFont == null)
                 defaultFont = this;
@@ -258,16 +322,274 @@ public class BitmapFont {
         }
     }
 
+    private void readGlyphTablesV1(DataInputStream data) throws IOException {
+        String characterMap = data.readUTF();
+        int count = characterMap.length();
+        buildCharIndex(characterMap);
+
+        // read characters widthes
+        this.widths = new int[count];
+        this.x = new int[count];
+        this.y = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            widths[i] = data.readByte();
+        }
+
+        // calculate characters coordinates
+        int curX = 0, curY = 0;
+        for (int i = 0; i < count; i++) {
+            if (widths[i] < 0) {
+                // negative width points to another character
+                int sourceIndex = -widths[i];
+                widths[i] = widths[sourceIndex];
+                x[i] = x[sourceIndex];
+                y[i] = y[sourceIndex];
+            } else {
+                x[i] = curX;
+                y[i] = curY;
+                curX += widths[i];
+            }
+        }
+
+        buildAdvances();
+
+        // the original implementation supported multiple-images
+        // in the font file, but this is not necessary. Because I do
+        // not want to change the encoding, I am leaving this byte that
+        // used to represent the number of PNGs in the file
+        data.skipBytes(1);
+    }
+
+    private void readGlyphTablesV2(DataInputStream data) throws IOException {
+        int count = data.readShort();
+        int indexCount = data.readShort();
+
+        byte[] tables = new byte[(indexCount * 4) + (count * 6)];
+        data.readFully(tables);
+        int pos = 0;
+
+        denseIndex = new short[DENSE_INDEX_SIZE];
+        for (int i = 0; i < DENSE_INDEX_SIZE; i++) {
+            denseIndex[i] = -1;
+        }
+        // the characters are sorted, so the ones outside the dense range are at the end
+        int denseCount = 0;
+        int idxPos = pos + (indexCount * 2);
+        for (; denseCount < indexCount; denseCount++) {
+            char c = (char) (((tables[pos] & 0xff) << 8) | (tables[pos + 1] & 0xff));
+            if (c >= DENSE_INDEX_SIZE) {
+                break;
+            }
+            denseIndex[c] = (short) (((tables[idxPos] & 0xff) << 8) | (tables[idxPos + 1] & 0xff));
+            pos += 2;
+            idxPos += 2;
+        }
+        int sparseCount = indexCount - denseCount;
+        sparseChars = new char[sparseCount];
+        sparseIndexes = new short[sparseCount];
+        for (int i = 0; i < sparseCount; i++) {
+            sparseChars[i] = (char) (((tables[pos] & 0xff) << 8) | (tables[pos + 1] & 0xff));
+            sparseIndexes[i] = (short) (((tables[idxPos] & 0xff) << 8) | (tables[idxPos + 1] & 0xff));
+            pos += 2;
+            idxPos += 2;
+        }
+        pos = idxPos;
+
+        widths = new int[count];
+        x = new int[count];
+        y = new int[count];
+        advances = new int[count];
+        for (int i = 0; i < count; i++, pos += 2) {
+            x[i] = (short) (((tables[pos] & 0xff) << 8) | (tables[pos + 1] & 0xff));
+        }
+        for (int i = 0; i < count; i++, pos += 2) {
+            y[i] = (short) (((tables[pos] & 0xff) << 8) | (tables[pos + 1] & 0xff));
+        }
+        for (int i = 0; i < count; i++) {
+            widths[i] = tables[pos++];
+        }
+        for (int i = 0; i < count; i++) {
+            advances[i] = tables[pos++];
+        }
+        unknownAdvance = spaceWidth + xIndent;
+    }
+
+    /**
+     * Build the glyph index from the character map. If a character appears more than once in the
+     * map, the lowest index wins (which is what characterMap.indexOf(c) used to return).
+     * 
+     * @param charMap
+     *            the characters in glyph order
+     */
+    private void buildCharIndex(String charMap) {
+        int count = charMap.length();
+        denseIndex = new short[DENSE_INDEX_SIZE];
+        for (int i = 0; i < DENSE_INDEX_SIZE; i++) {
+            denseIndex[i] = -1;
+        }
+
+        int sparseCount = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            char c = charMap.charAt(i);
+            if (c < DENSE_INDEX_SIZE) {
+                denseIndex[c] = (short) i;
+            } else {
+                sparseCount++;
+            }
+        }
+
+        char[] chars = new char[sparseCount];
+        short[] indexes = new short[sparseCount];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            char c = charMap.charAt(i);
+            if (c < DENSE_INDEX_SIZE) {
+                continue;
+            }
+            // insertion sort by character. The map is already mostly sorted, and we skip
+            // duplicates so the first (lowest) glyph index is kept.
+            int pos = n;
+            while (pos > 0 && chars[pos - 1] > c) {
+                pos--;
+            }
+            if (pos > 0 && chars[pos - 1] == c) {
+                continue;
+            }
+            System.arraycopy(chars, pos, chars, pos + 1, n - pos);
+            System.arraycopy(indexes, pos, indexes, pos + 1, n - pos);
+            chars[pos] = c;
+            indexes[pos] = (short) i;
+            n++;
+        }
+
+        // a space is never drawn or measured as a glyph. Mapping it to -1 lets the measurement
+        // loops treat it like any unmapped character.
+        denseIndex[' '] = -1;
+
+        if (n < sparseCount) {
+            char[] trimmedChars = new char[n];
+            short[] trimmedIndexes = new short[n];
+            System.arraycopy(chars, 0, trimmedChars, 0, n);
+            System.arraycopy(indexes, 0, trimmedIndexes, 0, n);
+            chars = trimmedChars;
+            indexes = trimmedIndexes;
+        }
+        sparseChars = chars;
+        sparseIndexes = indexes;
+    }
+
+    private void buildAdvances() {
+        int increment = xIndent + charWidthIncrement;
+        int count = widths.length;
+        advances = new int[count];
+        for (int i = 0; i < count; i++) {
+            advances[i] = widths[i] + increment;
+        }
+        unknownAdvance = spaceWidth + increment;
+    }
+
+    private static final int STYLE_MASK = Font.STYLE_BOLD | Font.STYLE_ITALIC | Font.STYLE_UNDERLINED;
+
     /**
-     * If the style differs from the current style, create a new font instance with the new style
-     * with minimal memory consumption. Otherwise return this object.
+     * If the style differs from the current style, return a font instance with the new style with
+     * minimal memory consumption. Variants are created once and then reused. Otherwise return this
+     * object.
      * 
      * @param style
      *            the style of the font
      * @return the font
      */
     public BitmapFont getFont(int style) {
-        return (style == getStyle()) ? this : new BitmapFont(this, style);
+        if (style == getStyle()) {
+            return this;
+        }
+        if ((style & ~STYLE_MASK) != 0 || variants == null) {
+            return new BitmapFont(this, style);
+        }
+        synchronized (variants) {
+            BitmapFont variant = variants[style];
+            if (variant == null) {
+                variant = variants[style] = new BitmapFont(this, style);
+            }
+            return variant;
+        }
+    }
+
+    /**
+     * Stack the glyph images of several fonts into a single atlas image so that the device holds
+     * one image for black text instead of one per font. The fonts, and all of their style variants,
+     * are switched to the atlas. Other colors are still rendered per font from its own palette, so
+     * colorized glyphs keep their shading and each font keeps its own color cache.
+     * 
+     * Packing needs a temporary int array the size of the whole atlas, so only use it when the
+     * fonts are small. The fonts must not be drawn from another thread while they are packed.
+     * 
+     * @param fonts
+     *            the fonts to pack. Fonts that failed to load are skipped.
+     * @return true if the fonts were packed
+     */
+    public static boolean packAtlas(BitmapFont[] fonts) {
+        int atlasWidth = 0, atlasHeight = 0, n = 0;
+        for (int i = 0; i < fonts.length; i++) {
+            BitmapFont font = fonts[i];
+            if (font == null || font.baseImage == null || font.packed) {
+                continue;
+            }
+            atlasWidth = Math.max(atlasWidth, font.baseImage.getWidth());
+            atlasHeight += font.baseImage.getHeight();
+            n++;
+        }
+        if (n < 2) {
+            return false;
+        }
+
+        Image atlas;
+        try {
+            int[] rgbData = new int[atlasWidth * atlasHeight];
+            int yOffset = 0;
+            for (int i = 0; i < fonts.length; i++) {
+                BitmapFont font = fonts[i];
+                if (font == null || font.baseImage == null || font.packed) {
+                    continue;
+                }
+                int w = font.baseImage.getWidth(), h = font.baseImage.getHeight();
+                font.baseImage.getRGB(rgbData, yOffset * atlasWidth, atlasWidth, 0, 0, w, h);
+                yOffset += h;
+            }
+            atlas = Image.createRGBImage(rgbData, atlasWidth, atlasHeight, true);
+        } catch (OutOfMemoryError e) {
+            Log.warn("Not enough memory to pack a font atlas");
+            return false;
+        }
+
+        int yOffset = 0;
+        for (int i = 0; i < fonts.length; i++) {
+            BitmapFont font = fonts[i];
+            if (font == null || font.baseImage == null || font.packed) {
+                continue;
+            }
+            int h = font.baseImage.getHeight();
+            font.useAtlas(atlas, yOffset);
+            yOffset += h;
+        }
+        return true;
+    }
+
+    private void useAtlas(Image atlas, int yOffset) {
+        BitmapFont[] fonts = variants != null ? variants : new BitmapFont[] { this };
+        synchronized (fonts) {
+            for (int i = 0; i < fonts.length; i++) {
+                BitmapFont font = fonts[i];
+                if (font == null) {
+                    continue;
+                }
+                font.baseImage = font.currentImage = atlas;
+                font.imageY = font.currentImageY = yOffset;
+                font.currentColor = 0;
+                font.packed = true;
+            }
+        }
     }
 
     private void markUsage(CacheEntry cacheEntry) {
@@ -284,7 +606,10 @@ public class BitmapFont {
         this.currentColor = color;
         if (color == 0x00000000) { // new color is black
             this.currentImage = this.baseImage;
+            this.currentImageY = this.imageY;
         } else {
+            // colorized images hold only the glyphs of this font
+            this.currentImageY = 0;
             int cacheItemIndex = 0;
             int minUsage = Integer.MAX_VALUE;
             for (int i = 0; i < colorCache.length; i++) {
@@ -302,17 +627,16 @@ public class BitmapFont {
                 }
             }
 
-            Image colorizedFontImage = null;
-            colorizedFontImage = getColorizedFontImage(this.fontFilePath, this.pngOffset, color);
+            Image colorizedFontImage = getColorizedPaletteImage(color);
             if (colorizedFontImage == null) {
                 Log.warn("Could not get colorized font image by processing png color pallete. Using backup method.");
-                colorizedFontImage = getColorizedFontImage(this.baseImage, color);
+                colorizedFontImage = getColorizedFontImage(this.baseImage, imageY, imageWidth, imageHeight, color);
             }
 
             // long startTime = System.currentTimeMillis();
             // for (int i = 0; i < 100; i++) {
             // colorizedFontImage = getColorizedFontImage(this.baseImage, color);
-            // colorizedFontImage = getColorizedFontImage(this.fontFilePath, this.pngOffset, color);
+            // colorizedFontImage = getColorizedPaletteImage(color);
             // }
             // long endTime = System.currentTimeMillis();
             // Log.debug("Font colorization time: " + (endTime - startTime));
@@ -338,91 +662,109 @@ public class BitmapFont {
         return true;
     }
 
-    private static void colorizePalette(byte[] buffer, int offset, int color) {
+    /**
+     * Rewrite the palette of the PNG in <code>buffer</code> so that black becomes
+     * <code>color</code> and white stays white, then fix up the chunk CRC.
+     * 
+     * @param offset
+     *            the offset of the PLTE chunk
+     * @param brightness
+     *            the brightness of each entry of the original palette
+     */
+    private static void colorizePalette(byte[] buffer, int offset, int[] brightness, int color) {
         int dataLength = StdLib.bytesToInt(buffer, offset);
         int dataOffset = offset + 8;
 
         int r = (color & 0x00FF0000) >>> 16;
         int g = (color & 0x0000FF00) >>> 8;
         int b = (color & 0x000000FF);
-
-        for (int i = 0; i < dataLength / 3; i++) {
-            int pR = buffer[dataOffset + 0] & 0xFF;
-            int pG = buffer[dataOffset + 1] & 0xFF;
-            int pB = buffer[dataOffset + 2] & 0xFF;
-
-            int brightness = (pR + pG + pB) / 3;
-
-            buffer[dataOffset++] = (byte) (r + (brightness * (255 - r)) / 255); // red
-            buffer[dataOffset++] = (byte) (g + (brightness * (255 - g)) / 255); // green
-            buffer[dataOffset++] = (byte) (b + (brightness * (255 - b)) / 255); // blue
+        int rRange = 255 - r;
+        int gRange = 255 - g;
+        int bRange = 255 - b;
+
+        for (int i = 0; i < brightness.length; i++) {
+            int br = brightness[i];
+            buffer[dataOffset++] = (byte) (r + div255(br * rRange)); // red
+            buffer[dataOffset++] = (byte) (g + div255(br * gRange)); // green
+            buffer[dataOffset++] = (byte) (b + div255(br * bRange)); // blue
         }
 
         int crc = crc32(buffer, offset + 4, dataLength + 4);
         StdLib.copyIntInto(crc, buffer, offset + 8 + dataLength);
     }
 
+    /**
+     * @return x / 255 for 0 <= x <= 255 * 255, without a division
+     */
+    private static int div255(int x) {
+        return (x + 1 + (x >> 8)) >> 8;
+    }
+
     private static final int CRC32_POLYNOMIAL = 0xEDB88320;
 
+    private static int[] crcTable;
+
+    private static int[] getCrcTable() {
+        int[] table = crcTable;
+        if (table == null) {
+            // building the table twice in a race is harmless
+            table = new int[256];
+            for (int n = 0; n < 256; n++) {
+                int c = n;
+                for (int k = 8; k > 0; k--) {
+                    if ((c & 1) == 1) {
+                        c = (c >>> 1) ^ CRC32_POLYNOMIAL;
+                    } else {
+                        c >>>= 1;
+                    }
+                }
+                table[n] = c;
+            }
+            crcTable = table;
+        }
+        return table;
+    }
+
     private static int crc32(byte buffer[], int offset, int count) {
+        int[] table = getCrcTable();
         int crc = 0xFFFFFFFF;
         while (count-- != 0) {
-            int t = (crc ^ buffer[offset++]) & 0xFF;
-            for (int i = 8; i > 0; i--) {
-                if ((t & 1) == 1) {
-                    t = (t >>> 1) ^ CRC32_POLYNOMIAL;
-                } else {
-                    t >>>= 1;
-                }
-            }
-            crc = (crc >>> 8) ^ t;
+            crc = (crc >>> 8) ^ table[(crc ^ buffer[offset++]) & 0xFF];
         }
         return crc ^ 0xFFFFFFFF;
     }
 
-    private static Image getColorizedFontImage(String path, short skip, int color) {
-        InputStream inputStream = BitmapFont.class.getResourceAsStream(path);
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        byte[] buff = new byte[2048];
-        int bytesRead = 0;
-        try {
-            inputStream.skip(skip);
-            while ((bytesRead = inputStream.read(buff)) != -1) {
-                bos.write(buff, 0, bytesRead);
-            }
-            return getColorizedImage(bos.toByteArray(), color);
-        } catch (IOException ioe) {
-        } finally {
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (IOException ignoreCloseFailure) {
-                }
-            }
-            if (bos != null) {
-                try {
-                    bos.close();
-                } catch (IOException ignoreCloseFailure) {
-                }
+    private void retainPalette(byte[] png) {
+        if (png.length < PNG_SIGNATURE.length() || !compareBytes(png, 0, PNG_SIGNATURE)) {
+            return;
+        }
+        int offset = getChunk(png, 8, "PLTE");
+        if (offset >= 0) {
+            int dataLength = StdLib.bytesToInt(png, offset);
+            int[] brightness = new int[dataLength / 3];
+            for (int i = 0, p = offset + 8; i < brightness.length; i++, p += 3) {
+                brightness[i] = ((png[p] & 0xFF) + (png[p + 1] & 0xFF) + (png[p + 2] & 0xFF)) / 3;
             }
+            paletteBrightness = brightness;
+            paletteOffset = offset;
+            pngData = png;
         }
-        return null;
     }
 
-    private static Image getColorizedImage(byte[] imageBuffer, int color) {
-        Image ret = null;
-
-        if (!compareBytes(imageBuffer, 0, PNG_SIGNATURE)) {
+    /**
+     * Colorize the font image by rewriting the palette (and its CRC) of the retained PNG.
+     * 
+     * @return the colorized image or null if the font image has no palette
+     */
+    private Image getColorizedPaletteImage(int color) {
+        byte[] png = pngData;
+        if (png == null) {
             return null;
         }
-
-        int paletteOffset = getChunk(imageBuffer, 8, "PLTE");
-        if (paletteOffset >= 0) {
-            colorizePalette(imageBuffer, paletteOffset, color);
-            ret = Image.createImage(imageBuffer, 0, imageBuffer.length);
+        synchronized (png) {
+            colorizePalette(png, paletteOffset, paletteBrightness, color);
+            return Image.createImage(png, 0, png.length);
         }
-
-        return ret;
     }
 
     private static int getChunk(byte[] buffer, int offset, String chunk) {
@@ -443,21 +785,34 @@ public class BitmapFont {
     // For a 1317*15 image, this will create an int array that will consume about
     // 77k... ouch. It should be a fast operation, but the large temporary-memory
     // consumption may be a deal breaker. The memory allocation+gc might make it slow.
-    private static Image getColorizedFontImage(Image sourceImage, int color) {
-        int width = sourceImage.getWidth();
-        int height = sourceImage.getHeight();
+    // Only the rows at y..y+height of sourceImage (the font's own glyphs in an atlas) are copied.
+    private static Image getColorizedFontImage(Image sourceImage, int y, int width, int height, int color) {
         int scanlength = width;
         int[] rgbData = new int[width * height];
 
-        sourceImage.getRGB(rgbData, 0, scanlength, 0, 0, width, height);
+        sourceImage.getRGB(rgbData, 0, scanlength, 0, y, width, height);
         int transparentWhite = 0x00FFFFFF;
 
+        int r = (color & 0x00FF0000) >>> 16;
+        int g = (color & 0x0000FF00) >>> 8;
+        int b = (color & 0x000000FF);
+        int rRange = 255 - r;
+        int gRange = 255 - g;
+        int bRange = 255 - b;
+
         for (int i = 0; i < rgbData.length; i++) {
-            // if the pixel is opaque (alpha channel > 0) then colorize the pixel.
-            // Otherwise, set it to transparent white.
-            rgbData[i] = (rgbData[i] & 0xFF000000) != 0
-                    ? 0xFF000000 | color
-                    : transparentWhite;
+            int argb = rgbData[i];
+            int alpha = argb & 0xFF000000;
+            if (alpha == 0) {
+                rgbData[i] = transparentWhite;
+                continue;
+            }
+            // keep the alpha, and map black to color and white to white like colorizePalette
+            int br = (((argb >> 16) & 0xFF) + ((argb >> 8) & 0xFF) + (argb & 0xFF)) / 3;
+            rgbData[i] = alpha
+                    | ((r + div255(br * rRange)) << 16)
+                    | ((g + div255(br * gRange)) << 8)
+                    | (b + div255(br * bRange));
         }
         return Image.createRGBImage(rgbData, width, height, true);
     }
@@ -488,11 +843,24 @@ public class BitmapFont {
      * @return the index of the character
      */
     protected int charIndex(char c) {
-        try {
-            return characterMap.indexOf(c);
-        } catch (IndexOutOfBoundsException e) {
-            return -1;
+        if (c < DENSE_INDEX_SIZE) {
+            return denseIndex[c];
         }
+        char[] chars = sparseChars;
+        int low = 0;
+        int high = chars.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = chars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return sparseIndexes[mid];
+            }
+        }
+        return -1;
     }
 
     /**
@@ -546,9 +914,7 @@ public class BitmapFont {
         int xx = getX(substringWidth(text, offset, length), x, anchors);
         int yy = getY(y, anchors);
         setColor(g.getColor());
-        for (int i = offset; i < offset + length; i++) {
-            xx = drawOneChar(g, text.charAt(i), xx, yy);
-        }
+        xx = drawGlyphs(g, text, null, offset, length, xx, yy);
         if ((style & Font.STYLE_UNDERLINED) != 0) {
             int yU = y + this.baseline + 2;
             g.drawLine(x, yU, xx - 1, yU);
@@ -600,7 +966,7 @@ public class BitmapFont {
     }
 
     /**
-     * Draws one character. It called from drawChar(), drawString() and drawSubstrung().
+     * Draws one character. It is called from drawChar(); strings are drawn by drawGlyphs().
      * 
      * @param g
      *            the graphics context
@@ -613,64 +979,101 @@ public class BitmapFont {
      * @return the x coordinate for the next character
      */
     protected int drawOneChar(Graphics g, char c, int x, int y) {
-        // skip if it is a space
-        if (c == ' ') {
-            return x + this.spaceWidth + xIndent + charWidthIncrement;
-        }
         int charIndex = charIndex(c);
-        // draw the unknown character as a rectangle
         if (charIndex < 0) {
-            int squareWidth = this.spaceWidth + xIndent + charWidthIncrement;
-            g.drawRect(x, y, squareWidth - 1, height - 1);
-            return x + squareWidth;
+            // skip if it is a space, and draw the unknown character as a rectangle
+            if (c != ' ') {
+                g.drawRect(x, y, unknownAdvance - 1, height - 1);
+            }
+            return x + unknownAdvance;
         }
+        drawGlyphRegion(g, this.currentImage, this.x[charIndex], this.y[charIndex] + currentImageY, widths[charIndex],
+                x, y + yIndent / 2);
+        return x + advances[charIndex];
+    }
 
-        int charX = this.x[charIndex];
-        int charY = this.y[charIndex];
-        int cw = widths[charIndex];
-
-        y += yIndent / 2;
-
+    /**
+     * Draws a run of characters taken either from <code>text</code> or from <code>data</code>
+     * (exactly one of them must be non-null). Glyphs that follow each other in the font image are
+     * coalesced into a single region when they also follow each other on screen, which is the case
+     * when neither an x-indent nor a bold increment separates them.
+     * 
+     * @return the x coordinate for the next character
+     */
+    private int drawGlyphs(Graphics g, String text, char[] data, int offset, int length, int x, int y) {
         Image image = this.currentImage;
+        short[] dense = denseIndex;
+        int[] glyphX = this.x;
+        int[] glyphY = this.y;
+        int imageY = this.currentImageY;
+        int[] adv = advances;
+        boolean coalesce = (xIndent + charWidthIncrement) == 0;
+        int glyphTop = y + yIndent / 2;
+
+        int runSrcX = 0, runSrcY = 0, runWidth = 0, runX = x;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            char c = (text != null) ? text.charAt(i) : data[i];
+            int index = c < DENSE_INDEX_SIZE ? dense[c] : charIndex(c);
+
+            if (index < 0) {
+                if (runWidth > 0) {
+                    drawGlyphRegion(g, image, runSrcX, runSrcY, runWidth, runX, glyphTop);
+                    runWidth = 0;
+                }
+                // skip if it is a space, and draw the unknown character as a rectangle
+                if (c != ' ') {
+                    g.drawRect(x, y, unknownAdvance - 1, height - 1);
+                }
+                x += unknownAdvance;
+                continue;
+            }
 
-        int clipX = g.getClipX();
-        int clipY = g.getClipY();
-        int clipWidth = g.getClipWidth();
-        int clipHeight = g.getClipHeight();
-
-        int ix = x - charX;
-        int iy = y - charY;
+            int cw = widths[index];
+            if (coalesce && runWidth > 0 && glyphX[index] == runSrcX + runWidth
+                    && glyphY[index] + imageY == runSrcY) {
+                runWidth += cw;
+            } else {
+                if (runWidth > 0) {
+                    drawGlyphRegion(g, image, runSrcX, runSrcY, runWidth, runX, glyphTop);
+                }
+                runSrcX = glyphX[index];
+                runSrcY = glyphY[index] + imageY;
+                runWidth = cw;
+                runX = x;
+            }
+            x += adv[index];
+        }
+        if (runWidth > 0) {
+            drawGlyphRegion(g, image, runSrcX, runSrcY, runWidth, runX, glyphTop);
+        }
+        return x;
+    }
 
+    /**
+     * Copies a region of the font image to the screen, emulating bold and italic styles by drawing
+     * it more than once with a horizontal offset. Because drawRegion() only touches the destination
+     * rectangle, the clip of <code>g</code> is never changed.
+     */
+    private void drawGlyphRegion(Graphics g, Image image, int srcX, int srcY, int w, int x, int y) {
+        int h = glyphHeight;
+        int anchor = Graphics.LEFT | Graphics.TOP;
         if (!italic && !bold) {
-            g.clipRect(x, y, cw, this.height);
-            g.drawImage(image, ix, iy, Graphics.LEFT | Graphics.TOP);
+            g.drawRegion(image, srcX, srcY, w, h, Sprite.TRANS_NONE, x, y, anchor);
         } else if (italic & bold) {
-            int halfHeight = height / 2;
-            g.clipRect(x + 1, y, cw, this.height);
-            g.drawImage(image, ix + 1, iy, Graphics.LEFT | Graphics.TOP);
-            g.setClip(clipX, clipY, clipWidth, clipHeight);
-            g.clipRect(x + 2, y, cw, halfHeight);
-            g.drawImage(image, ix + 2, iy, Graphics.LEFT | Graphics.TOP);
-            g.setClip(clipX, clipY, clipWidth, clipHeight);
-            g.clipRect(x, y + halfHeight, cw, height - halfHeight);
-            g.drawImage(image, ix, iy, Graphics.LEFT | Graphics.TOP);
+            int halfHeight = h / 2;
+            g.drawRegion(image, srcX, srcY, w, h, Sprite.TRANS_NONE, x + 1, y, anchor);
+            g.drawRegion(image, srcX, srcY, w, halfHeight, Sprite.TRANS_NONE, x + 2, y, anchor);
+            g.drawRegion(image, srcX, srcY + halfHeight, w, h - halfHeight, Sprite.TRANS_NONE,
+                    x, y + halfHeight, anchor);
         } else if (italic) {
-            int halfHeight = height / 2;
-            g.clipRect(x + 1, y, cw, halfHeight);
-            g.drawImage(image, ix + 1, iy, Graphics.LEFT | Graphics.TOP);
-            g.setClip(clipX, clipY, clipWidth, clipHeight);
-            g.clipRect(x, y + halfHeight, cw, height - halfHeight);
-            g.drawImage(image, ix, iy, Graphics.LEFT | Graphics.TOP);
+            int halfHeight = h / 2;
+            g.drawRegion(image, srcX, srcY, w, halfHeight, Sprite.TRANS_NONE, x + 1, y, anchor);
+            g.drawRegion(image, srcX, srcY + halfHeight, w, h - halfHeight, Sprite.TRANS_NONE,
+                    x, y + halfHeight, anchor);
         } else { // just a bold
-            g.clipRect(x, y, cw, this.height);
-            g.drawImage(image, ix, iy, Graphics.LEFT | Graphics.TOP);
-            g.setClip(clipX, clipY, clipWidth, clipHeight);
-            g.clipRect(x + 1, y, cw, this.height);
-            g.drawImage(image, ix + 1, iy, Graphics.LEFT | Graphics.TOP);
+            g.drawRegion(image, srcX, srcY, w, h, Sprite.TRANS_NONE, x, y, anchor);
+            g.drawRegion(image, srcX, srcY, w, h, Sprite.TRANS_NONE, x + 1, y, anchor);
         }
-        // restore clipping
-        g.setClip(clipX, clipY, clipWidth, clipHeight);
-        return x + cw + xIndent + charWidthIncrement;
     }
 
     /**
@@ -693,12 +1096,26 @@ public class BitmapFont {
      * @return the x coordinate for the next character
      */
     public int drawChars(Graphics g, char[] data, int offset, int length, int x, int y, int anchors) {
-        int xx = getX(charsWidth(data, offset, length), x, anchors);
+        return drawChars(g, data, offset, length, charsWidth(data, offset, length), x, y, anchors);
+    }
+
+    /**
+     * Draws the specified characters like {@link #drawChars(Graphics, char[], int, int, int, int, int)}
+     * but returns their width, so a caller that needs both does not measure them twice.
+     * 
+     * @return the width of the drawn characters in pixels
+     */
+    public int drawRun(Graphics g, char[] data, int offset, int length, int x, int y, int anchors) {
+        int w = charsWidth(data, offset, length);
+        drawChars(g, data, offset, length, w, x, y, anchors);
+        return w;
+    }
+
+    private int drawChars(Graphics g, char[] data, int offset, int length, int w, int x, int y, int anchors) {
+        int xx = getX(w, x, anchors);
         int yy = getY(y, anchors);
         setColor(g.getColor());
-        for (int i = offset; i < offset + length; i++) {
-            xx = drawOneChar(g, data[i], xx, yy);
-        }
+        xx = drawGlyphs(g, null, data, offset, length, xx, yy);
         if ((style & Font.STYLE_UNDERLINED) != 0) {
             int yU = y + this.baseline + 2;
             g.drawLine(x, yU, xx - 1, yU);
@@ -716,15 +1133,8 @@ public class BitmapFont {
      * @return the width of the character
      */
     public int charWidth(char c) {
-        if (c == ' ') {
-            return spaceWidth + xIndent + charWidthIncrement;
-        }
         int index = charIndex(c);
-        if (index < 0) {
-            return spaceWidth + xIndent + charWidthIncrement;
-        } else {
-            return widths[index] + xIndent + charWidthIncrement;
-        }
+        return index < 0 ? unknownAdvance : advances[index];
     }
 
     /**
@@ -740,13 +1150,81 @@ public class BitmapFont {
      * @return the width in pixels
      */
     public int charsWidth(char[] ch, int offset, int length) {
+        short[] dense = denseIndex;
+        int[] adv = advances;
+        int unknown = unknownAdvance;
         int w = 0;
-        for (int i = offset; i < offset + length; i++) {
-            w += charWidth(ch[i]);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            char c = ch[i];
+            int index = c < DENSE_INDEX_SIZE ? dense[c] : charIndex(c);
+            w += index < 0 ? unknown : adv[index];
         }
         return w;
     }
 
+    /**
+     * Gets the width of the characters and, optionally, the width of every prefix of them.
+     * 
+     * @param ch
+     *            the array of characters
+     * @param offset
+     *            zero-based index of a first character
+     * @param length
+     *            the number of characters to measure
+     * @param prefixWidths
+     *            if not null, <code>prefixWidths[i]</code> is set to the width of the first
+     *            <code>i + 1</code> characters. It must have room for <code>length</code> values.
+     * @return the width in pixels
+     */
+    public int charsWidth(char[] ch, int offset, int length, int[] prefixWidths) {
+        if (prefixWidths == null) {
+            return charsWidth(ch, offset, length);
+        }
+        short[] dense = denseIndex;
+        int[] adv = advances;
+        int unknown = unknownAdvance;
+        int w = 0;
+        for (int i = 0; i < length; i++) {
+            char c = ch[offset + i];
+            int index = c < DENSE_INDEX_SIZE ? dense[c] : charIndex(c);
+            w += index < 0 ? unknown : adv[index];
+            prefixWidths[i] = w;
+        }
+        return w;
+    }
+
+    /**
+     * Measures the characters, starting at the specified offset, until the accumulated width
+     * exceeds <code>maxWidth</code>.
+     * 
+     * @param ch
+     *            the array of characters
+     * @param offset
+     *            zero-based index of a first character
+     * @param length
+     *            the number of characters to measure
+     * @param maxWidth
+     *            the available width in pixels
+     * @return the index of the first character that does not fit (<code>offset + length</code>
+     *         if they all fit)
+     */
+    public int charsFit(char[] ch, int offset, int length, int maxWidth) {
+        short[] dense = denseIndex;
+        int[] adv = advances;
+        int unknown = unknownAdvance;
+        int w = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char c = ch[i];
+            int index = c < DENSE_INDEX_SIZE ? dense[c] : charIndex(c);
+            w += index < 0 ? unknown : adv[index];
+            if (w > maxWidth) {
+                return i;
+            }
+        }
+        return end;
+    }
+
     /**
      * Gets the width of the string.
      * 
@@ -770,11 +1248,48 @@ public class BitmapFont {
      * @return the length of the substring
      */
     public int substringWidth(String str, int offset, int length) {
+        short[] dense = denseIndex;
+        int[] adv = advances;
+        int unknown = unknownAdvance;
         int w = 0;
-        for (int i = offset; i < offset + length; i++) {
-            w += charWidth(str.charAt(i));
+        for (int i = offset, end = offset + length; i < end; i++) {
+            char c = str.charAt(i);
+            int index = c < DENSE_INDEX_SIZE ? dense[c] : charIndex(c);
+            w += index < 0 ? unknown : adv[index];
         }
         return w;
     }
 
+    /**
+     * Measures the substring, starting at the specified offset, until the accumulated width
+     * exceeds <code>maxWidth</code>.
+     * 
+     * @param str
+     *            the string to be measured
+     * @param offset
+     *            zero-based index of a first character in the substring
+     * @param length
+     *            the number of characters to measure
+     * @param maxWidth
+     *            the available width in pixels
+     * @return the index of the first character that does not fit (<code>offset + length</code>
+     *         if they all fit)
+     */
+    public int substringFit(String str, int offset, int length, int maxWidth) {
+        short[] dense = denseIndex;
+        int[] adv = advances;
+        int unknown = unknownAdvance;
+        int w = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char c = str.charAt(i);
+            int index = c < DENSE_INDEX_SIZE ? dense[c] : charIndex(c);
+            w += index < 0 ? unknown : adv[index];
+            if (w > maxWidth) {
+                return i;
+            }
+        }
+        return end;
+    }
+
 }
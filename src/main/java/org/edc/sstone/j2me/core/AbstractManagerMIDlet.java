@@ -29,8 +29,11 @@ import org.edc.sstone.il8n.PropertyResourceMessageSource;
 import org.edc.sstone.j2me.audio.AudioPlayer;
 import org.edc.sstone.j2me.device.BacklightControl;
 import org.edc.sstone.j2me.font.FontFactory;
+import org.edc.sstone.j2me.ui.component.TextArea;
 import org.edc.sstone.j2me.ui.style.theme.BlueGradientTheme;
 import org.edc.sstone.j2me.ui.style.theme.Theme;
+import org.edc.sstone.j2me.ui.util.LineImageCache;
+import org.edc.sstone.j2me.ui.util.TextLayoutCache;
 import org.edc.sstone.log.Log;
 import org.edc.sstone.nav.ScreenNavigation;
 import org.edc.sstone.util.StringTokenizer;
@@ -42,6 +45,8 @@ import de.enough.polish.util.DeviceInfo;
  */
 public abstract class AbstractManagerMIDlet extends MIDlet implements MIDletManager {
 
+    private static final int DEFAULT_LAYOUT_CACHE_KB = 32;
+
     private DeviceScreen current;
     private AudioPlayer audioPlayer;
     private Theme theme;
@@ -52,6 +57,8 @@ public abstract class AbstractManagerMIDlet extends MIDlet implements MIDletMana
 
     protected BacklightControl backlightControl;
     private ScreenNavigation nav;
+    private Scheduler scheduler;
+    private boolean renderingInitialized = false;
 
     protected AbstractManagerMIDlet() {
         Registry.init(this);
@@ -131,7 +138,98 @@ public abstract class AbstractManagerMIDlet extends MIDlet implements MIDletMana
                 ? Constants.FONT_SIZE_MEDIUM
                 : ((Integer) fontMagnificationObj).byteValue();
 
-        fontFactory = new FontFactory(fontEngineType, fontSizes, fontMagnification);
+        int fontCacheSize = FontFactory.DEFAULT_CACHE_CAPACITY;
+        String fontCacheSizeProp = getMidletProperty("fontCacheSize");
+        if (fontCacheSizeProp != null && fontCacheSizeProp.trim().length() > 0) {
+            try {
+                fontCacheSize = Integer.parseInt(fontCacheSizeProp.trim());
+            } catch (NumberFormatException e) {
+                Log.warn("Invalid property fontCacheSize: " + fontCacheSizeProp, e);
+            }
+        }
+
+        fontFactory = new FontFactory(fontEngineType, fontSizes, fontMagnification, fontCacheSize);
+        preloadFonts();
+    }
+
+    /**
+     * Install the cache of laid out text so screens that are rebuilt (e.g., when the user navigates
+     * back or toggles the magnification) do not break their text into lines again. The budget is
+     * the <code>layoutCacheKb</code> MIDlet property in kilobytes (0 disables the cache).
+     */
+    protected void initLayoutCache() {
+        int kb = DEFAULT_LAYOUT_CACHE_KB;
+        String cacheSizeProp = getMidletProperty("layoutCacheKb");
+        if (cacheSizeProp != null && cacheSizeProp.trim().length() > 0) {
+            try {
+                kb = Integer.parseInt(cacheSizeProp.trim());
+            } catch (NumberFormatException e) {
+                Log.warn("Invalid property layoutCacheKb: " + cacheSizeProp, e);
+            }
+        }
+        TextArea.setLayoutCache(kb > 0 ? new TextLayoutCache(kb * 1024) : null);
+    }
+
+    /**
+     * Paint screens through an off-screen buffer with cached title bar and menubar images if the
+     * <code>backBuffer</code> MIDlet property is <code>true</code>. See
+     * {@link DeviceScreen#setBackBufferEnabled(boolean)}.
+     */
+    protected void initBackBuffer() {
+        DeviceScreen.setBackBufferEnabled("true".equals(getMidletProperty("backBuffer")));
+    }
+
+    /**
+     * Parse the bitmap fonts in a background thread while the rest of the app initializes. If the
+     * <code>fontAtlas</code> MIDlet property is <code>true</code>, the glyph images of all sizes
+     * are packed into one image.
+     */
+    protected void preloadFonts() {
+        final boolean packAtlas = "true".equals(getMidletProperty("fontAtlas"));
+        final FontFactory factory = fontFactory;
+        new Thread() {
+            public void run() {
+                try {
+                    factory.preload(packAtlas);
+                } catch (Throwable t) {
+                    Log.warn("Could not preload fonts", t);
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Install the rendering caches and options configured by MIDlet properties. Call this from the
+     * init sequence (e.g., after {@link #initDisplay()}) so the first screen already uses them.
+     * Otherwise it is called before the first screen is shown. It only runs once.
+     */
+    protected synchronized void initRendering() {
+        if (renderingInitialized) {
+            return;
+        }
+        renderingInitialized = true;
+        initLineImageCache();
+        initLayoutCache();
+        initBackBuffer();
+    }
+
+    /**
+     * Install a cache of pre-rendered text lines if the <code>lineImageCacheKb</code> MIDlet
+     * property is set to a positive number of kilobytes. Without it (the default), text areas draw
+     * their lines glyph-by-glyph on every paint. Called from {@link #initRendering()}.
+     */
+    protected void initLineImageCache() {
+        String cacheSizeProp = getMidletProperty("lineImageCacheKb");
+        if (cacheSizeProp != null && cacheSizeProp.trim().length() > 0) {
+            try {
+                int kb = Integer.parseInt(cacheSizeProp.trim());
+                if (kb > 0) {
+                    TextArea.setLineImageCache(new LineImageCache(kb * 1024));
+                }
+            } catch (NumberFormatException e) {
+                Log.warn("Invalid property lineImageCacheKb: " + cacheSizeProp, e);
+            }
+        }
     }
 
     protected Theme newTheme(FontFactory fontFactory) {
@@ -167,6 +265,9 @@ public abstract class AbstractManagerMIDlet extends MIDlet implements MIDletMana
 
     public void setTheme(Theme theme) {
         this.theme = theme;
+        if (fontFactory != null) {
+            fontFactory.invalidate();
+        }
     }
 
     public void exit() {
@@ -175,6 +276,10 @@ public abstract class AbstractManagerMIDlet extends MIDlet implements MIDletMana
             notifyDestroyed();
         } catch (MIDletStateChangeException e) {
             throw new RuntimeException("Could not destroy");
+        } finally {
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
         }
     }
 
@@ -187,6 +292,7 @@ public abstract class AbstractManagerMIDlet extends MIDlet implements MIDletMana
     }
 
     public void setScreen(DeviceScreen deviceScreen) {
+        initRendering();
 
         Displayable screenCanvas = deviceScreen.getCanvas();
         Display display = Display.getDisplay(this);
@@ -256,4 +362,11 @@ public abstract class AbstractManagerMIDlet extends MIDlet implements MIDletMana
         return fontFactory;
     }
 
+    public synchronized Scheduler getScheduler() {
+        if (scheduler == null) {
+            scheduler = new Scheduler(Display.getDisplay(this));
+        }
+        return scheduler;
+    }
+
 }
@@ -19,13 +19,12 @@
  */
 package org.edc.sstone.j2me.core;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import javax.microedition.lcdui.Canvas;
 import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
 
 import org.edc.sstone.j2me.device.BacklightControl;
+import org.edc.sstone.j2me.font.FontFactory;
 import org.edc.sstone.j2me.ui.KeyCode;
 import org.edc.sstone.j2me.ui.menu.MenuButton;
 import org.edc.sstone.j2me.ui.menu.MenuItem;
@@ -54,7 +53,19 @@ public abstract class DeviceScreen {
 
     protected static boolean useKeyRepeater = !DeviceInfo.sendsMultipleKeyPressesWhenHoldingDownKeys();
 
-    protected Timer keyRepeater = useKeyRepeater ? new Timer() : null;
+    /*
+     * When true, screens are painted through an off-screen buffer (unless the device already
+     * double-buffers), only the regions passed to repaint(int, int, int, int) are painted again,
+     * and the title bar and menubar are painted from cached images.
+     */
+    private static boolean backBufferEnabled = false;
+
+    /*
+     * Incremented when something that is painted on the title bar or menubar changes, so the
+     * cached image is painted again.
+     */
+    private int titleBarVersion = 0;
+    private int menubarVersion = 0;
 
     /**
      * What is written as a title bar for this canvas. When this is <code>null</code> no title bar
@@ -126,16 +137,6 @@ public abstract class DeviceScreen {
      */
     public void hideNotify() {
         slave.stopKeyRepeater();
-        if (keyRepeater != null) {
-            /*
-             * An IllegalStateException can be thrown in J2ME's Timer impl if you cancel an
-             * already-canceled timer. Catch + ignore this.
-             */
-            try {
-                keyRepeater.cancel();
-            } catch (Exception ignore) {
-            }
-        }
     }
 
     /*
@@ -169,8 +170,10 @@ public abstract class DeviceScreen {
         // Notify the slave screen.
         slave.setTitle(title);
 
-        if (slave.isShown())
+        if (slave.isShown()) {
+            slave.invalidateAll();
             slave.repaint();
+        }
     }
 
     /**
@@ -198,6 +201,7 @@ public abstract class DeviceScreen {
      *            {@link MenuButton#CENTER}, {@link MenuButton#RIGHT})
      */
     public void addMenuItem(MenuItem menuItem, byte pos) {
+        invalidateMenubar();
         MenuButton button = menuButtons[pos];
         if (button == null) {
             menuButtons[pos] = new MenuItemButton(this, menuItem, pos);
@@ -223,6 +227,36 @@ public abstract class DeviceScreen {
         return menuButtons[pos];
     }
 
+    /**
+     * Call this when the appearance of a menu button changes (e.g., it is enabled or gets a new
+     * icon) so the menubar is not painted from a stale cached image.
+     */
+    public void invalidateMenubar() {
+        menubarVersion++;
+    }
+
+    /**
+     * Call this when something that {@link #paintTitleBar(Graphics)} paints changes, other than the
+     * title, theme or fonts, so the title bar is not painted from a stale cached image.
+     */
+    public void invalidateTitleBar() {
+        titleBarVersion++;
+    }
+
+    /**
+     * Paint screens through an off-screen buffer and paint only the regions that were
+     * {@link #repaint(int, int, int, int) repainted}. The title bar and menubar are rendered into
+     * images once and copied after that. Devices that double-buffer themselves do not get an extra
+     * buffer; they only get the dirty regions and chrome images.
+     */
+    public static void setBackBufferEnabled(boolean enabled) {
+        backBufferEnabled = enabled;
+    }
+
+    public static boolean isBackBufferEnabled() {
+        return backBufferEnabled;
+    }
+
     /**
      * @return <code>true</code>
      */
@@ -328,6 +362,7 @@ public abstract class DeviceScreen {
         slave.setFullScreenMode(true);
 
         // Do the repaint.
+        slave.invalidateAll();
         slave.repaint();
     }
 
@@ -337,6 +372,16 @@ public abstract class DeviceScreen {
             int titleHeight = getTheme().getTitleBarHeight();
             y += titleHeight;
         }
+        repaintCanvas(x, y, width, height);
+    }
+
+    /**
+     * Like {@link #repaint(int, int, int, int)}, but the rectangle is in canvas coordinates, i.e.,
+     * <code>y</code> is not offset by the title bar. The content area is always painted below the
+     * title bar, so use this for positions that were recorded while painting.
+     */
+    public void repaintCanvas(int x, int y, int width, int height) {
+        slave.invalidate(x, y, width, height);
         slave.repaint(x, y, width, height);
     }
 
@@ -410,6 +455,10 @@ public abstract class DeviceScreen {
      * <p>
      * Override this method to change the appearance of the title bar for just this canvas. To
      * change them for the entire application, override <code>Theme.paintTitleBar</code>.
+     * <p>
+     * With the back buffer enabled, the title bar is painted into an image that is only painted
+     * again when the title, theme, fonts or screen size change. An override that paints anything
+     * else that changes must call {@link #invalidateTitleBar()} when it does.
      * 
      * @param g
      *            is the <code>Graphics</code> object to paint with.
@@ -431,6 +480,11 @@ public abstract class DeviceScreen {
      * Override this method to change the appearance or functionality of the menu for just this
      * screen. To change them for the entire application, override <code>Theme.paintMenubar</code>.
      * Be careful not to write strings that are too long and will not fit on the menu bar.
+     * <p>
+     * With the back buffer enabled, the menubar is painted into an image that is only painted again
+     * when the menu buttons are replaced, enabled or disabled, or the theme, fonts or screen size
+     * change. An override that paints anything else that changes, or code that changes a
+     * {@link MenuItem#icon}, must call {@link #invalidateMenubar()} when it does.
      * 
      * @param g
      *            is the <code>Graphics</code> object to paint with.
@@ -439,6 +493,20 @@ public abstract class DeviceScreen {
         getTheme().paintMenubar(g, menuButtons);
     }
 
+    /**
+     * @return true if a popup menu is open. Popup menus are painted with the menubar, but they
+     *         cover part of the content area.
+     */
+    protected boolean isPopupMenuVisible() {
+        for (int i = 0; i < menuButtons.length; i++) {
+            if ((menuButtons[i] instanceof PopupMenuButton)
+                    && ((PopupMenuButton) menuButtons[i]).isVisible()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns if the clip area of <code>g</code> intersects the given rectangle.
      * 
@@ -492,7 +560,32 @@ public abstract class DeviceScreen {
     private static final class CanvasWrapper
             extends javax.microedition.lcdui.Canvas {
 
-        private TimerTask timerTask;
+        private ScheduledTask timerTask;
+
+        private static final int MAX_DIRTY_RECTS = 8;
+
+        // x, y, width, height of each region invalidated since the last paint
+        private final int[] dirtyRects = new int[MAX_DIRTY_RECTS * 4];
+        private final int[] paintRects = new int[MAX_DIRTY_RECTS * 4];
+        private int dirtyCount = 0;
+        private boolean allDirty = true;
+
+        // only one screen is shown at a time, so all screens share the buffer
+        private static Image backBuffer;
+        private static Graphics backBufferGraphics;
+
+        private Image titleBarImage;
+        private String titleBarImageTitle;
+        private Theme titleBarImageTheme;
+        private int titleBarImageFontGeneration;
+        private int titleBarImageVersion;
+
+        private Image menubarImage;
+        private Theme menubarImageTheme;
+        private int menubarImageFontGeneration;
+        private int menubarImageVersion;
+        private final MenuButton[] menubarImageButtons = new MenuButton[3];
+        private final boolean[] menubarImageButtonsEnabled = new boolean[3];
 
         // implements CommandListener {
 
@@ -542,12 +635,13 @@ public abstract class DeviceScreen {
                 if (StdLib.arrayContainsReference(repeatableKeys, kc)) {
                     synchronized (CanvasWrapper.this) {
                         stopKeyRepeater();
-                        timerTask = new TimerTask() {
+                        // repeated keys are delivered on the UI thread, like the key presses
+                        timerTask = new ScheduledTask(true) {
                             public void run() {
                                 master.keyRepeated(kc);
                             }
                         };
-                        master.keyRepeater.schedule(timerTask, 200l, 100l);
+                        master.getManager().getScheduler().schedule(timerTask, 200l, 100l);
                     }
                 }
             }
@@ -564,6 +658,54 @@ public abstract class DeviceScreen {
             }
         }
 
+        /*
+         * The shared back buffer holds whatever screen was painted last, so a screen that is shown
+         * is painted completely.
+         */
+        protected void showNotify() {
+            invalidateAll();
+        }
+
+        protected void sizeChanged(int w, int h) {
+            titleBarImage = null;
+            menubarImage = null;
+            invalidateAll();
+        }
+
+        /**
+         * Mark the whole screen to be painted again.
+         */
+        synchronized void invalidateAll() {
+            allDirty = true;
+            dirtyCount = 0;
+        }
+
+        /**
+         * Add a region to be painted again. When the list is full, the region is merged into the
+         * last one.
+         */
+        synchronized void invalidate(int x, int y, int w, int h) {
+            if (!backBufferEnabled || allDirty || w <= 0 || h <= 0) {
+                return;
+            }
+            if (dirtyCount == MAX_DIRTY_RECTS) {
+                int i = (dirtyCount - 1) * 4;
+                int right = Math.max(dirtyRects[i] + dirtyRects[i + 2], x + w);
+                int bottom = Math.max(dirtyRects[i + 1] + dirtyRects[i + 3], y + h);
+                dirtyRects[i] = Math.min(dirtyRects[i], x);
+                dirtyRects[i + 1] = Math.min(dirtyRects[i + 1], y);
+                dirtyRects[i + 2] = right - dirtyRects[i];
+                dirtyRects[i + 3] = bottom - dirtyRects[i + 1];
+                return;
+            }
+            int i = dirtyCount * 4;
+            dirtyRects[i] = x;
+            dirtyRects[i + 1] = y;
+            dirtyRects[i + 2] = w;
+            dirtyRects[i + 3] = h;
+            dirtyCount++;
+        }
+
         /**
          * Paints the screen. If not in full screen mode, this includes the title bar and menu bar.
          * <p>
@@ -580,39 +722,217 @@ public abstract class DeviceScreen {
             try {
                 setFullScreenMode(true);
 
-                Theme theme = Registry.getManager().getTheme();
-                master.paintTitleBar(g);
+                if (!backBufferEnabled) {
+                    paintScreen(g);
+                    return;
+                }
+
+                // take the regions that were invalidated since the last paint
+                int count;
+                boolean all;
+                synchronized (this) {
+                    count = dirtyCount;
+                    all = allDirty;
+                    System.arraycopy(dirtyRects, 0, paintRects, 0, count * 4);
+                    dirtyCount = 0;
+                    allDirty = false;
+                }
+
+                if (isDoubleBuffered()) {
+                    /*
+                     * The device keeps what is outside of the clip, so there is no need for our own
+                     * buffer. Paint the whole clip if we get a paint we did not ask for (e.g., after
+                     * a system dialog).
+                     */
+                    if (all || count == 0 || !clipWithin(g, paintRects, count)) {
+                        paintScreen(g);
+                    } else {
+                        paintRegions(g, paintRects, count);
+                    }
+                } else {
+                    if (backBuffer == null
+                            || backBuffer.getWidth() != getWidth()
+                            || backBuffer.getHeight() != getHeight()) {
+                        backBuffer = Image.createImage(getWidth(), getHeight());
+                        backBufferGraphics = backBuffer.getGraphics();
+                        all = true;
+                    }
+                    Graphics bg = backBufferGraphics;
+                    if (all) {
+                        bg.setClip(0, 0, getWidth(), getHeight());
+                        paintScreen(bg);
+                    } else {
+                        // without new regions, the buffer is still current (e.g., after a system
+                        // dialog) and only needs to be copied
+                        paintRegions(bg, paintRects, count);
+                    }
+                    g.drawImage(backBuffer, 0, 0, Graphics.TOP | Graphics.LEFT);
+                }
+            } catch (Throwable t) {
+                // Unhandled exception in paint() will crash an application and not
+                // tell you why. This lets the programmer know what caused the problem.
+                Log.warn("Unhandled exception in paint for " + master, t);
+            }
+        }
 
-                // save the clipping area settings
-                int clipX = g.getClipX();
-                int clipY = g.getClipY();
-                int clipWidth = g.getClipWidth();
-                int clipHeight = g.getClipHeight();
+        /**
+         * Paint each region, clipped to the current clip of <code>g</code>.
+         */
+        private void paintRegions(Graphics g, int[] rects, int count) {
+            int clipX = g.getClipX();
+            int clipY = g.getClipY();
+            int clipWidth = g.getClipWidth();
+            int clipHeight = g.getClipHeight();
+            for (int i = 0; i < count * 4; i += 4) {
+                g.setClip(clipX, clipY, clipWidth, clipHeight);
+                g.clipRect(rects[i], rects[i + 1], rects[i + 2], rects[i + 3]);
+                if (g.getClipWidth() > 0 && g.getClipHeight() > 0) {
+                    paintScreen(g);
+                }
+            }
+            g.setClip(clipX, clipY, clipWidth, clipHeight);
+        }
 
-                // calculate and set the new clipping area settings
-                int titleHeight = theme.getTitleBarHeight();
-                int menuHeight = theme.getMenubarHeight();
-                int contentAreaHeight = master.getScreenHeight();
+        /**
+         * @return true if the clip of <code>g</code> is inside the bounds of the regions
+         */
+        private static boolean clipWithin(Graphics g, int[] rects, int count) {
+            int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+            for (int i = 0; i < count * 4; i += 4) {
+                left = Math.min(left, rects[i]);
+                top = Math.min(top, rects[i + 1]);
+                right = Math.max(right, rects[i] + rects[i + 2]);
+                bottom = Math.max(bottom, rects[i + 1] + rects[i + 3]);
+            }
+            return g.getClipX() >= left
+                    && g.getClipY() >= top
+                    && g.getClipX() + g.getClipWidth() <= right
+                    && g.getClipY() + g.getClipHeight() <= bottom;
+        }
 
-                contentAreaHeight = contentAreaHeight - titleHeight - menuHeight;
+        private void paintScreen(Graphics g) {
+            Theme theme = Registry.getManager().getTheme();
+            int screenWidth = master.getScreenWidth();
 
-                g.translate(0, titleHeight);
-                g.clipRect(0, 0, master.getScreenWidth(), contentAreaHeight);
+            // a partial repaint (e.g., of an animated component) does not touch the chrome
+            if (intersects(g, 0, 0, screenWidth, theme.getTitleBarHeight())) {
+                if (backBufferEnabled) {
+                    paintCachedTitleBar(g, theme, screenWidth);
+                } else {
+                    master.paintTitleBar(g);
+                }
+            }
 
-                // paint the background and content area
-                master.paintBackground(g);
-                master.paintContentArea(g);
+            // save the clipping area settings
+            int clipX = g.getClipX();
+            int clipY = g.getClipY();
+            int clipWidth = g.getClipWidth();
+            int clipHeight = g.getClipHeight();
 
-                // restore clip + translation
-                g.translate(0, -titleHeight);
-                g.setClip(clipX, clipY, clipWidth, clipHeight);
+            // calculate and set the new clipping area settings
+            int titleHeight = theme.getTitleBarHeight();
+            int menuHeight = theme.getMenubarHeight();
+            int contentAreaHeight = master.getScreenHeight();
 
+            contentAreaHeight = contentAreaHeight - titleHeight - menuHeight;
+
+            g.translate(0, titleHeight);
+            g.clipRect(0, 0, screenWidth, contentAreaHeight);
+
+            // paint the background and content area
+            master.paintBackground(g);
+            master.paintContentArea(g);
+
+            // restore clip + translation
+            g.translate(0, -titleHeight);
+            g.setClip(clipX, clipY, clipWidth, clipHeight);
+
+            // a visible popup menu covers part of the content area, so it is always painted live
+            if (master.isPopupMenuVisible()) {
                 master.paintMenubar(g);
-            } catch (Throwable t) {
-                // Unhandled exception in paint() will crash an application and not
-                // tell you why. This lets the programmer know what caused the problem.
-                Log.warn("Unhandled exception in paint for " + master, t);
+            } else if (intersects(g, 0, theme.getMenubarTop(), screenWidth, menuHeight + 1)) {
+                if (backBufferEnabled) {
+                    paintCachedMenubar(g, theme, screenWidth);
+                } else {
+                    master.paintMenubar(g);
+                }
+            }
+        }
+
+        private void paintCachedTitleBar(Graphics g, Theme theme, int screenWidth) {
+            String title = master.getTitle();
+            int height = theme.getTitleBarHeight();
+            int fontGeneration = getFontGeneration();
+            if (titleBarImage == null
+                    || titleBarImage.getWidth() != screenWidth
+                    || titleBarImage.getHeight() != height
+                    || titleBarImageTheme != theme
+                    || titleBarImageFontGeneration != fontGeneration
+                    || titleBarImageVersion != master.titleBarVersion
+                    || !(title == null ? titleBarImageTitle == null : title.equals(titleBarImageTitle))) {
+                titleBarImage = Image.createImage(screenWidth, height);
+                master.paintTitleBar(titleBarImage.getGraphics());
+                titleBarImageTitle = title;
+                titleBarImageTheme = theme;
+                titleBarImageFontGeneration = fontGeneration;
+                titleBarImageVersion = master.titleBarVersion;
+            }
+            g.drawImage(titleBarImage, 0, 0, Graphics.TOP | Graphics.LEFT);
+        }
+
+        private void paintCachedMenubar(Graphics g, Theme theme, int screenWidth) {
+            int top = theme.getMenubarTop();
+            int height = Math.min(theme.getMenubarHeight(), master.getScreenHeight() - top);
+            if (height <= 0) {
+                return;
+            }
+            int fontGeneration = getFontGeneration();
+            if (menubarImage == null
+                    || menubarImage.getWidth() != screenWidth
+                    || menubarImage.getHeight() != height
+                    || menubarImageTheme != theme
+                    || menubarImageFontGeneration != fontGeneration
+                    || menubarImageVersion != master.menubarVersion
+                    || !isMenubarImageCurrent()) {
+                menubarImage = Image.createImage(screenWidth, height);
+                Graphics ig = menubarImage.getGraphics();
+                ig.translate(0, -top);
+                master.paintMenubar(ig);
+                menubarImageTheme = theme;
+                menubarImageFontGeneration = fontGeneration;
+                menubarImageVersion = master.menubarVersion;
+                for (int i = 0; i < menubarImageButtons.length; i++) {
+                    MenuButton mb = master.menuButtons[i];
+                    menubarImageButtons[i] = mb;
+                    menubarImageButtonsEnabled[i] = mb != null && mb.isEnabled();
+                }
+            }
+            g.drawImage(menubarImage, 0, top, Graphics.TOP | Graphics.LEFT);
+        }
+
+        /**
+         * @return the generation of the font factory, which changes when, e.g., the magnification
+         *         changes while the theme stays the same
+         */
+        private static int getFontGeneration() {
+            FontFactory fontFactory = Registry.getManager().getFontFactory();
+            return fontFactory != null ? fontFactory.getGeneration() : 0;
+        }
+
+        /**
+         * @return false if the menu buttons were replaced, enabled or disabled since the menubar
+         *         image was painted
+         */
+        private boolean isMenubarImageCurrent() {
+            for (int i = 0; i < menubarImageButtons.length; i++) {
+                MenuButton mb = master.menuButtons[i];
+                if (mb != menubarImageButtons[i]
+                        || (mb != null && mb.isEnabled() != menubarImageButtonsEnabled[i])) {
+                    return false;
+                }
             }
+            return true;
         }
     }
 
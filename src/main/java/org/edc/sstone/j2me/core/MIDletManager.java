@@ -82,5 +82,10 @@ public interface MIDletManager {
 
     public FontFactory getFontFactory();
 
+    /**
+     * @return the scheduler that runs the timed tasks of the application on one shared thread
+     */
+    public Scheduler getScheduler();
+
     public void showMainMenu();
 }
\ No newline at end of file
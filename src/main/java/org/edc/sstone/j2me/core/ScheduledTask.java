@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2012 EDC
+ *
+ * This file is part of Stepping Stone.
+ *
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.j2me.core;
+
+import org.edc.sstone.log.Log;
+
+/**
+ * A task run by the {@link Scheduler}. The task is its own handle: {@link #cancel()} stops it,
+ * whether it is waiting, periodic or queued in a {@link TaskQueue}. A task can only be scheduled
+ * once.
+ * 
+ * @author Greg Orlowski
+ */
+public abstract class ScheduledTask implements Runnable {
+
+    /*
+     * If true, run() is called on the UI thread through Display.callSerially rather than on the
+     * scheduler's thread.
+     */
+    final boolean serial;
+
+    // set by the scheduler
+    long period;
+    long nextRun;
+
+    // the queue this task belongs to, if any
+    TaskQueue queue;
+
+    private boolean cancelled = false;
+
+    // a callSerially delivery is waiting to run
+    private boolean pending = false;
+    private Runnable serialRunner;
+
+    /**
+     * Create a task that runs on the scheduler's thread.
+     */
+    public ScheduledTask() {
+        this(false);
+    }
+
+    /**
+     * @param serial
+     *            if true, the task is run on the UI thread (see
+     *            <code>Display.callSerially(Runnable)</code>). Use this for tasks that change what
+     *            is painted. If the UI thread falls behind, runs of a periodic task are dropped
+     *            rather than queued up.
+     */
+    public ScheduledTask(boolean serial) {
+        this.serial = serial;
+    }
+
+    /**
+     * Stop the task. It will not run again, and if it belongs to a {@link TaskQueue}, the next task
+     * of the queue is started.
+     * 
+     * @return false if the task was already cancelled or, if it runs once, had already run
+     */
+    public boolean cancel() {
+        TaskQueue q;
+        synchronized (this) {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+            q = queue;
+        }
+        if (q != null) {
+            q.taskFinished(this);
+        }
+        return true;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Called on the scheduler's thread when the task is due.
+     */
+    void deliver(Scheduler scheduler) {
+        if (serial && scheduler.display != null) {
+            synchronized (this) {
+                if (pending || cancelled) {
+                    return;
+                }
+                pending = true;
+                if (serialRunner == null) {
+                    serialRunner = new Runnable() {
+                        public void run() {
+                            synchronized (ScheduledTask.this) {
+                                pending = false;
+                            }
+                            execute();
+                        }
+                    };
+                }
+            }
+            scheduler.display.callSerially(serialRunner);
+        } else {
+            execute();
+        }
+    }
+
+    private void execute() {
+        if (isCancelled()) {
+            return;
+        }
+        try {
+            run();
+        } catch (Throwable t) {
+            // an exception must not kill the scheduler's thread
+            Log.warn("Unhandled exception in scheduled task " + this, t);
+        }
+        if (period == 0) {
+            cancel();
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2012 EDC
+ *
+ * This file is part of Stepping Stone.
+ *
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.j2me.core;
+
+import java.util.Hashtable;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.Vector;
+
+import javax.microedition.lcdui.Display;
+
+/**
+ * Runs the {@link ScheduledTask}s of the whole application on one background thread (see
+ * {@link MIDletManager#getScheduler()}). Screens, animations and device controls use this instead
+ * of creating their own <code>Timer</code>s, since every <code>Timer</code> is a thread and many
+ * devices allow only a few.
+ * 
+ * Periodic tasks with the same period share one timer entry and run one after another on each
+ * tick, so, e.g., several animations wake the thread once per frame instead of once each.
+ * 
+ * @author Greg Orlowski
+ */
+public class Scheduler {
+
+    final Display display;
+
+    private Timer timer;
+
+    // period (Long) -> Tick
+    private final Hashtable ticks = new Hashtable();
+
+    /**
+     * @param display
+     *            used to run serial tasks on the UI thread. If null, serial tasks run on the
+     *            scheduler's thread.
+     */
+    public Scheduler(Display display) {
+        this.display = display;
+    }
+
+    /**
+     * Run <code>task</code> once after <code>delay</code> milliseconds.
+     */
+    public synchronized void schedule(final ScheduledTask task, long delay) {
+        task.period = 0;
+        getTimer().schedule(new TimerTask() {
+            public void run() {
+                task.deliver(Scheduler.this);
+            }
+        }, Math.max(0, delay));
+    }
+
+    /**
+     * Run <code>task</code> every <code>period</code> milliseconds, starting after
+     * <code>delay</code> milliseconds, until it is cancelled. The task runs on the tick shared by all
+     * tasks with the same period, so the first run may be up to half a period early or late.
+     */
+    public synchronized void schedule(ScheduledTask task, long delay, long period) {
+        if (period <= 0) {
+            schedule(task, delay);
+            return;
+        }
+        task.period = period;
+        task.nextRun = System.currentTimeMillis() + Math.max(0, delay);
+
+        Long key = new Long(period);
+        Tick tick = (Tick) ticks.get(key);
+        if (tick == null) {
+            tick = new Tick(period);
+            ticks.put(key, tick);
+            getTimer().schedule(tick, Math.min(Math.max(0, delay), period), period);
+        }
+        tick.tasks.addElement(task);
+    }
+
+    /**
+     * Stop the scheduler's thread. Tasks scheduled after this start a new one.
+     */
+    public synchronized void shutdown() {
+        ticks.clear();
+        if (timer != null) {
+            try {
+                timer.cancel();
+            } catch (Exception ignore) {
+            }
+            timer = null;
+        }
+    }
+
+    private synchronized Timer getTimer() {
+        if (timer == null) {
+            timer = new Timer();
+        }
+        return timer;
+    }
+
+    /**
+     * Runs the periodic tasks that share a period.
+     */
+    private final class Tick extends TimerTask {
+
+        private final long period;
+        private final Vector tasks = new Vector();
+
+        // reused to run the tasks outside of the scheduler's lock
+        private ScheduledTask[] due = new ScheduledTask[4];
+
+        Tick(long period) {
+            this.period = period;
+        }
+
+        public void run() {
+            long now = System.currentTimeMillis();
+            int count = 0;
+            synchronized (Scheduler.this) {
+                for (int i = tasks.size() - 1; i >= 0; i--) {
+                    ScheduledTask task = (ScheduledTask) tasks.elementAt(i);
+                    if (task.isCancelled()) {
+                        tasks.removeElementAt(i);
+                    } else if (task.nextRun - now < period / 2) {
+                        task.nextRun = Math.max(task.nextRun + period, now + period / 2);
+                        if (count == due.length) {
+                            ScheduledTask[] a = new ScheduledTask[count * 2];
+                            System.arraycopy(due, 0, a, 0, count);
+                            due = a;
+                        }
+                        due[count++] = task;
+                    }
+                }
+                if (tasks.isEmpty()) {
+                    ticks.remove(new Long(period));
+                    cancel();
+                }
+            }
+            // run in the order the tasks were scheduled
+            for (int i = count - 1; i >= 0; i--) {
+                due[i].deliver(Scheduler.this);
+                due[i] = null;
+            }
+        }
+    }
+
+}
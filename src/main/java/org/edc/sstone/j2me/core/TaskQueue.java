@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2012 EDC
+ *
+ * This file is part of Stepping Stone.
+ *
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.j2me.core;
+
+import java.util.Vector;
+
+/**
+ * Runs {@link ScheduledTask}s one after another on the {@link Scheduler}: a task is started when
+ * the one before it has been cancelled (a periodic task usually cancels itself when it is done)
+ * or, if it runs once, has run. The delay of a task counts from the time it is started.
+ * 
+ * @author Greg Orlowski
+ */
+public class TaskQueue {
+
+    private final Scheduler scheduler;
+    private final Vector waiting = new Vector();
+    private ScheduledTask current;
+
+    public TaskQueue(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void schedule(ScheduledTask task, long delay, long period) {
+        task.nextRun = delay;
+        task.period = period;
+        synchronized (this) {
+            task.queue = this;
+            waiting.addElement(task);
+            if (current != null) {
+                return;
+            }
+        }
+        startNext();
+    }
+
+    public void scheduleOnce(ScheduledTask task, long delay) {
+        schedule(task, delay, 0);
+    }
+
+    /**
+     * Cancel the running task and discard the waiting ones. The queue can be used again.
+     */
+    public void cleanup() {
+        ScheduledTask running;
+        Vector discarded;
+        synchronized (this) {
+            running = current;
+            current = null;
+            discarded = new Vector(waiting.size());
+            for (int i = 0; i < waiting.size(); i++) {
+                discarded.addElement(waiting.elementAt(i));
+            }
+            waiting.removeAllElements();
+        }
+        if (running != null) {
+            running.queue = null;
+            running.cancel();
+        }
+        for (int i = 0; i < discarded.size(); i++) {
+            ScheduledTask task = (ScheduledTask) discarded.elementAt(i);
+            task.queue = null;
+            task.cancel();
+        }
+    }
+
+    void taskFinished(ScheduledTask task) {
+        synchronized (this) {
+            if (task != current) {
+                waiting.removeElement(task);
+                return;
+            }
+            current = null;
+        }
+        startNext();
+    }
+
+    private void startNext() {
+        ScheduledTask next;
+        synchronized (this) {
+            if (current != null || waiting.isEmpty()) {
+                return;
+            }
+            next = (ScheduledTask) waiting.elementAt(0);
+            waiting.removeElementAt(0);
+            current = next;
+        }
+        // schedule() stored the delay in nextRun until the task is started
+        scheduler.schedule(next, next.nextRun, next.period);
+    }
+
+}
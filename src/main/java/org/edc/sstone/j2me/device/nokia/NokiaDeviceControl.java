@@ -18,9 +18,8 @@
  */
 package org.edc.sstone.j2me.device.nokia;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
+import org.edc.sstone.j2me.core.Registry;
+import org.edc.sstone.j2me.core.ScheduledTask;
 import org.edc.sstone.j2me.device.BacklightControl;
 
 import com.nokia.mid.ui.DeviceControl;
@@ -30,7 +29,6 @@ import com.nokia.mid.ui.DeviceControl;
  */
 public class NokiaDeviceControl implements BacklightControl {
 
-    private Timer timer = new Timer();
     private NokiaBacklightKeepAliveTask backlightTask;
     private static final int PERIOD_SECONDS = 10;
     private int keepAliveSeconds = 0;
@@ -57,11 +55,11 @@ public class NokiaDeviceControl implements BacklightControl {
             DeviceControl.setLights(0, 100);
             backlightTask = new NokiaBacklightKeepAliveTask(keepAliveSeconds);
             long period = PERIOD_SECONDS * 1000l;
-            timer.schedule(backlightTask, 0l, period);
+            Registry.getManager().getScheduler().schedule(backlightTask, 0l, period);
         }
     }
 
-    private static class NokiaBacklightKeepAliveTask extends TimerTask {
+    private static class NokiaBacklightKeepAliveTask extends ScheduledTask {
 
         private int count;
 
@@ -93,13 +91,5 @@ public class NokiaDeviceControl implements BacklightControl {
                 backlightTask = null;
             }
         }
-        if (timer != null) {
-            try {
-                timer.cancel();
-            } catch (Exception ignore) {
-            } finally {
-                timer = null;
-            }
-        }
     }
 }
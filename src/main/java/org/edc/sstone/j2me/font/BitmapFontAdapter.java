@@ -74,4 +74,24 @@ class BitmapFontAdapter implements IFont {
         return font.substringWidth(str, offset, len);
     }
 
+    public int measureRun(char[] ch, int offset, int length, int[] prefixWidths) {
+        return font.charsWidth(ch, offset, length, prefixWidths);
+    }
+
+    public int fitChars(char[] ch, int offset, int length, int maxWidth) {
+        return font.charsFit(ch, offset, length, maxWidth) - offset;
+    }
+
+    public int drawRun(Graphics g, char[] ch, int offset, int length, int x, int y, int anchor) {
+        return font.drawRun(g, ch, offset, length, x, y, anchor);
+    }
+
+    public boolean equals(Object obj) {
+        return (obj instanceof BitmapFontAdapter) && ((BitmapFontAdapter) obj).font == font;
+    }
+
+    public int hashCode() {
+        return font.hashCode();
+    }
+
 }
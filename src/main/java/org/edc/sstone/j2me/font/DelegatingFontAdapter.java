@@ -44,9 +44,10 @@ public class DelegatingFontAdapter implements IFont {
     }
 
     public void drawChars(Graphics g, char[] data, int offset, int length, int x, int y, int anchor) {
-        delegateFont.drawChars(g, data, offset, length, x, y, anchor);
         if (strikeThrough) {
-            GraphicsFunc.strikeThrough(g, this, x, y, anchor, charsWidth(data, offset, length));
+            drawRun(g, data, offset, length, x, y, anchor);
+        } else {
+            delegateFont.drawChars(g, data, offset, length, x, y, anchor);
         }
     }
 
@@ -60,7 +61,7 @@ public class DelegatingFontAdapter implements IFont {
     public void drawSubstring(Graphics g, String str, int offset, int len, int x, int y, int anchor) {
         delegateFont.drawSubstring(g, str, offset, len, x, y, anchor);
         if (strikeThrough) {
-            GraphicsFunc.strikeThrough(g, this, x, y, anchor, stringWidth(str.substring(offset, len)));
+            GraphicsFunc.strikeThrough(g, this, x, y, anchor, substringWidth(str, offset, len));
         }
     }
 
@@ -88,4 +89,38 @@ public class DelegatingFontAdapter implements IFont {
         return delegateFont.substringWidth(str, offset, len);
     }
 
+    public int measureRun(char[] ch, int offset, int length, int[] prefixWidths) {
+        return delegateFont.measureRun(ch, offset, length, prefixWidths);
+    }
+
+    public int fitChars(char[] ch, int offset, int length, int maxWidth) {
+        return delegateFont.fitChars(ch, offset, length, maxWidth);
+    }
+
+    public int drawRun(Graphics g, char[] ch, int offset, int length, int x, int y, int anchor) {
+        int w = delegateFont.drawRun(g, ch, offset, length, x, y, anchor);
+        if (strikeThrough) {
+            GraphicsFunc.strikeThrough(g, this, x, y, anchor, w);
+        }
+        return w;
+    }
+
+    /**
+     * Two adapters are equal if they render identically, i.e. they wrap equal fonts and agree on
+     * strike-through. This lets callers that cache rendered text recognize a font they have
+     * already used even if the factory handed out a new adapter.
+     */
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof DelegatingFontAdapter))
+            return false;
+        DelegatingFontAdapter other = (DelegatingFontAdapter) obj;
+        return strikeThrough == other.strikeThrough && delegateFont.equals(other.delegateFont);
+    }
+
+    public int hashCode() {
+        return delegateFont.hashCode() * 31 + (strikeThrough ? 1 : 0);
+    }
+
 }
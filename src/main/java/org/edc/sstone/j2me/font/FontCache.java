@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2012 EDC
+ *
+ * This file is part of Stepping Stone.
+ *
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.j2me.font;
+
+import org.apache.commons.lang.IntHashMap;
+
+/**
+ * A fixed-capacity LRU cache of fonts keyed by an int. Entries are kept in an intrusive doubly
+ * linked list (most recently used at the head), so lookups, insertions and evictions are O(1) and
+ * do not allocate anything other than the node for a new entry.
+ *
+ * The cache counts hits, misses and evictions so they can be inspected at runtime (e.g., on a
+ * memory profile screen).
+ *
+ * @author Greg Orlowski
+ */
+public class FontCache {
+
+    private final int capacity;
+    private final IntHashMap nodes;
+
+    private Node head;
+    private Node tail;
+
+    private int hitCount = 0;
+    private int missCount = 0;
+    private int evictionCount = 0;
+
+    private static final class Node {
+        final int key;
+        final IFont font;
+        Node prev;
+        Node next;
+
+        Node(int key, IFont font) {
+            this.key = key;
+            this.font = font;
+        }
+    }
+
+    public FontCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.nodes = new IntHashMap(this.capacity * 2);
+    }
+
+    /**
+     * @return the cached font for <code>key</code> or <code>null</code> if it is not cached
+     */
+    public synchronized IFont get(int key) {
+        Node node = (Node) nodes.get(key);
+        if (node == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        if (node != head) {
+            unlink(node);
+            linkFirst(node);
+        }
+        return node.font;
+    }
+
+    /**
+     * Put a font in the cache, evicting the least recently used font if the cache is full.
+     */
+    public synchronized void put(int key, IFont font) {
+        Node node = (Node) nodes.get(key);
+        if (node != null) {
+            unlink(node);
+            nodes.remove(key);
+        } else if (nodes.size() >= capacity && tail != null) {
+            Node lru = tail;
+            unlink(lru);
+            nodes.remove(lru.key);
+            evictionCount++;
+        }
+        node = new Node(key, font);
+        nodes.put(key, node);
+        linkFirst(node);
+    }
+
+    public synchronized void clear() {
+        nodes.clear();
+        head = tail = null;
+    }
+
+    public synchronized void resetStatistics() {
+        hitCount = missCount = evictionCount = 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+
+    public String toString() {
+        return "FontCache[size=" + size() + "/" + capacity
+                + ", hits=" + hitCount
+                + ", misses=" + missCount
+                + ", evictions=" + evictionCount + "]";
+    }
+
+    private void linkFirst(Node node) {
+        node.prev = null;
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        }
+        head = node;
+        if (tail == null) {
+            tail = node;
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tail = node.prev;
+        }
+        node.prev = node.next = null;
+    }
+
+}
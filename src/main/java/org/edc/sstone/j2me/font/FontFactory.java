@@ -18,14 +18,13 @@
  */
 package org.edc.sstone.j2me.font;
 
-import java.util.Enumeration;
-
 import javax.microedition.lcdui.Font;
 
 import net.sergetk.mobile.lcdui.BitmapFont;
 
 import org.apache.commons.lang.IntHashMap;
 import org.edc.sstone.Constants;
+import org.edc.sstone.log.Log;
 import org.edc.sstone.ui.model.FontStyle;
 
 /**
@@ -36,54 +35,48 @@ public class FontFactory {
     public static final byte FONT_IMPL_SYSTEM = 1;
     public static final byte FONT_IMPL_BITMAP = 2;
 
+    public static final int DEFAULT_CACHE_CAPACITY = 6;
+
     private final byte[] fontSizes; // must be null or a 3-member array
     private final byte adapterType;
     private byte magnification = 1;
+    private volatile int generation = 0;
 
-    // TODO: after v1, I could consider writing a true cache
-    // abstraction that keeps statistics of hits/misses and supports
-    // switching between LRU and LFU. I could add a hotkey to the app
-    // to pull up a memory profile screen
-    private final int cacheCapacity = 6; // TODO: after v1, make this tuneable
+    /*
+     * Resolved fonts (face, size, style and strike-through), including system fonts. These are
+     * cheap to rebuild from the base fonts, so they can be evicted.
+     */
+    private final FontCache fontCache;
 
-    private IntHashMap cacheLRUTracker = new IntHashMap(6);
-    private IntHashMap fontCache = new IntHashMap(6);
+    /*
+     * Plain-style bitmap fonts keyed by face and pixel height. These hold the glyph images and the
+     * style variants share them, so they are never evicted. There are at most one per configured
+     * size.
+     */
+    private final IntHashMap bitmapFonts = new IntHashMap(4);
 
     public FontFactory(byte fontEngine, byte[] fontSizes, byte magnification) {
+        this(fontEngine, fontSizes, magnification, DEFAULT_CACHE_CAPACITY);
+    }
+
+    public FontFactory(byte fontEngine, byte[] fontSizes, byte magnification, int cacheCapacity) {
         this.adapterType = fontEngine;
         this.fontSizes = fontSizes;
         this.magnification = magnification;
+        this.fontCache = new FontCache(cacheCapacity);
     }
 
     protected String bitmapFontPath = "/fonts/raster";
 
-    protected int makeCacheKey(FontStyle style, boolean systemFont) {
-        final int prime = 31;
-        int result = 1;
-        result = (prime * result) + style.getFace();
-        result = (prime * result) + style.getSize();
-        if (systemFont) {
-            result = (prime * result) + style.getStyle();
-        }
-        return result;
-    }
-
-    protected void putInCache(IFont ifont, int cacheKey) {
-        if (fontCache.size() >= cacheCapacity) {
-            long lru = System.currentTimeMillis();
-            int keyToRemove = -1;
-            for (Enumeration e = cacheLRUTracker.keys(); e.hasMoreElements();) {
-                int key = ((Integer) e.nextElement()).intValue();
-                long lastUsage = ((Long) cacheLRUTracker.get(key)).longValue();
-                if (lastUsage < lru) {
-                    lru = lastUsage;
-                    keyToRemove = key;
-                }
-            }
-            fontCache.remove(keyToRemove);
-        }
-        cacheLRUTracker.put(cacheKey, new Long(System.currentTimeMillis()));
-        fontCache.put(cacheKey, ifont);
+    /**
+     * Pack the attributes of a (magnified) font style into a collision-free key: face, size and
+     * style are all single-byte flag values.
+     */
+    protected int makeCacheKey(FontStyle style) {
+        return ((style.getFace() & 0xff) << 16)
+                | ((style.getSize() & 0xff) << 8)
+                | ((style.getStyle() & 0x7f) << 1)
+                | (style.isStrikeThrough() ? 1 : 0);
     }
 
     /**
@@ -94,64 +87,103 @@ public class FontFactory {
      */
     public IFont getFont(FontStyle fontStyle) {
         fontStyle = fontStyle.magnified(magnification);
+        int cacheKey = makeCacheKey(fontStyle);
+        IFont ifont = fontCache.get(cacheKey);
+        if (ifont == null) {
+            ifont = new DelegatingFontAdapter(createFont(fontStyle), fontStyle);
+            fontCache.put(cacheKey, ifont);
+        }
+        return ifont;
+    }
 
+    protected IFont createFont(FontStyle fontStyle) {
         /*
          * For v1.0, monospace automatically uses system fonts. We probably only need it to align
          * simple math equations that use ASCII chars. This is just a time-saving measure because
          * rendering and then image-correcting raster fonts from TTFs is time consuming.
          */
-        boolean useSystemFont = (adapterType == FONT_IMPL_SYSTEM
+        boolean useSystemFont = (adapterType != FONT_IMPL_BITMAP
                 || fontStyle.getFace() == Font.FACE_MONOSPACE);
-        IFont delegateFont = null;
 
-        int cacheKey = -1;
-        Object iFontObj = null;
+        if (useSystemFont) {
+            return new SystemFontAdapter(Font.getFont(fontStyle.getFace(), fontStyle.getStyle(),
+                    fontStyle.getSize()));
+        }
 
-        if (!useSystemFont) {
-            cacheKey = makeCacheKey(fontStyle, useSystemFont);
-            iFontObj = fontCache.get(cacheKey);
+        int sizeIdx = 1;
+        switch (fontStyle.getSize()) {
+            case Constants.FONT_SIZE_SMALL:
+                sizeIdx = 0;
+                break;
+            case Constants.FONT_SIZE_LARGE:
+                sizeIdx = 2;
+                break;
         }
+        int sizePx = fontSizes[sizeIdx];
 
-        if (iFontObj != null) {
-            // Log.debug("Found font in cache: " + cacheKey);
-            delegateFont = (IFont) iFontObj;
-        } else if (useSystemFont) {
-            // Log.debug("Creating new system font: " + cacheKey);
-            Font font = Font.getFont(fontStyle.getFace(), fontStyle.getStyle(), fontStyle.getSize());
-            delegateFont = new SystemFontAdapter(font);
-        } else if (adapterType == FONT_IMPL_BITMAP) {
-            // Log.debug("Creating new bitmap font: " + cacheKey);
-            int sizeIdx = 1;
-            switch (fontStyle.getSize()) {
-                case Constants.FONT_SIZE_SMALL:
-                    sizeIdx = 0;
-                    break;
-                case Constants.FONT_SIZE_LARGE:
-                    sizeIdx = 2;
-                    break;
-            }
-            int sizePx = fontSizes[sizeIdx];
-            String fontFaceName = fontStyle.getFace() == Font.FACE_MONOSPACE ? "monospace" : "proportional";
+        // The plain-style font is the one we keep; the style variants are cached inside it.
+        BitmapFont font = getBitmapFont(fontStyle.getFace(), sizePx);
+        return new BitmapFontAdapter(font.getFont(fontStyle.getStyle()));
+    }
 
-            // always initialize with a plain style. The plain-style variant should be the cached
-            // variant to reduce object instantiation since we will probably use plain the most.
-            delegateFont = new BitmapFontAdapter(loadBitmapFont(fontFaceName, sizePx));
+    protected synchronized BitmapFont getBitmapFont(int face, int fontHeightPx) {
+        int key = ((face & 0xff) << 8) | (fontHeightPx & 0xff);
+        BitmapFont font = (BitmapFont) bitmapFonts.get(key);
+        if (font == null) {
+            String fontFaceName = face == Font.FACE_MONOSPACE ? "monospace" : "proportional";
+            font = loadBitmapFont(fontFaceName, fontHeightPx);
+            bitmapFonts.put(key, font);
         }
+        return font;
+    }
 
-        // If not in the cache, put in the cache, otherwise, update the lru timestamp
-        if (!useSystemFont) {
-            if (iFontObj == null) {
-                putInCache(delegateFont, makeCacheKey(fontStyle, useSystemFont));
-            } else {
-                cacheLRUTracker.put(cacheKey, new Long(System.currentTimeMillis()));
+    /**
+     * Load the bitmap fonts for all of the configured sizes so the first screen does not have to
+     * parse font files while it paints. This is meant to be run in a background thread right after
+     * the factory is created; {@link #getFont(FontStyle)} blocks while a font is being loaded here
+     * rather than loading it a second time.
+     *
+     * @param packAtlas
+     *            if true, stack the glyph images of all sizes into a single atlas image (see
+     *            {@link BitmapFont#packAtlas(BitmapFont[])}). The atlas is only packed if no font
+     *            has been loaded yet because fonts must not change while they are in use.
+     */
+    public void preload(boolean packAtlas) {
+        if (adapterType != FONT_IMPL_BITMAP || fontSizes == null) {
+            return;
+        }
+        if (!packAtlas) {
+            // load one size at a time so a paint only waits for the font it needs
+            for (int i = 0; i < fontSizes.length; i++) {
+                getBitmapFont(Font.FACE_PROPORTIONAL, fontSizes[i]);
             }
+            return;
         }
-
-        if ((delegateFont instanceof BitmapFontAdapter) && fontStyle.getStyle() != delegateFont.getStyle()) {
-            delegateFont = new BitmapFontAdapter(((BitmapFontAdapter) delegateFont).font.getFont(fontStyle.getStyle()));
+        synchronized (this) {
+            if (bitmapFonts.size() > 0) {
+                Log.debug("Fonts are already in use. Not packing a font atlas.");
+                preload(false);
+                return;
+            }
+            BitmapFont[] fonts = new BitmapFont[fontSizes.length];
+            for (int i = 0; i < fontSizes.length; i++) {
+                fonts[i] = getBitmapFont(Font.FACE_PROPORTIONAL, fontSizes[i]);
+                // two sizes may be configured with the same height
+                for (int j = 0; j < i; j++) {
+                    if (fonts[j] == fonts[i]) {
+                        fonts[i] = null;
+                    }
+                }
+            }
+            BitmapFont.packAtlas(fonts);
         }
+    }
 
-        return new DelegatingFontAdapter(delegateFont, fontStyle);
+    /**
+     * @return the cache of resolved fonts, e.g., to inspect its hit/miss/eviction statistics
+     */
+    public FontCache getFontCache() {
+        return fontCache;
     }
 
     protected BitmapFont loadBitmapFont(String name, int fontHeightPx) {
@@ -167,7 +199,26 @@ public class FontFactory {
     }
 
     public void setMagnification(byte magnification) {
-        this.magnification = magnification;
+        if (this.magnification != magnification) {
+            this.magnification = magnification;
+            invalidate();
+        }
+    }
+
+    /**
+     * Tell holders of resolved fonts (e.g., {@link org.edc.sstone.j2me.ui.style.AbstractStyle#getFont()}) that they must ask
+     * the factory again because the fonts it returns may have changed, e.g., after the
+     * magnification or the theme changed.
+     */
+    public void invalidate() {
+        generation++;
+    }
+
+    /**
+     * @return a counter that changes every time the factory is {@link #invalidate() invalidated}
+     */
+    public int getGeneration() {
+        return generation;
     }
 
 }
@@ -57,4 +57,32 @@ public interface IFont {
 
     public int substringWidth(String str, int offset, int len);
 
+    /*
+     * Runs: measure, break and draw a range of a char array with one call
+     */
+
+    /**
+     * Measure a run of chars.
+     * 
+     * @param prefixWidths
+     *            if not null, <code>prefixWidths[i]</code> is set to the width of the first
+     *            <code>i + 1</code> chars of the run. It must have room for <code>length</code>
+     *            values.
+     * @return the width of the run in pixels
+     */
+    public int measureRun(char[] ch, int offset, int length, int[] prefixWidths);
+
+    /**
+     * @return the number of chars of the run, starting at <code>offset</code>, that fit within
+     *         <code>maxWidth</code> pixels
+     */
+    public int fitChars(char[] ch, int offset, int length, int maxWidth);
+
+    /**
+     * Draw a run of chars like {@link #drawChars(Graphics, char[], int, int, int, int, int)}.
+     * 
+     * @return the width of the run in pixels
+     */
+    public int drawRun(Graphics g, char[] ch, int offset, int length, int x, int y, int anchor);
+
 }
@@ -28,6 +28,12 @@ class SystemFontAdapter implements IFont {
 
     private final Font font;
 
+    /*
+     * Widths of Latin-1 chars, filled in as they are measured. Font.charWidth is a native call on
+     * most devices, and the run methods below measure char by char. 0 means not measured yet.
+     */
+    private final int[] charWidths = new int[256];
+
     SystemFontAdapter(Font font) {
         this.font = font;
     }
@@ -49,7 +55,7 @@ class SystemFontAdapter implements IFont {
 
     public void drawSubstring(Graphics g, String str, int offset, int len, int x, int y, int anchor) {
         g.setFont(font);
-        g.drawString(str, x, y, anchor);
+        g.drawSubstring(str, offset, len, x, y, anchor);
     }
 
     public int charsWidth(char[] ch, int offset, int length) {
@@ -57,7 +63,14 @@ class SystemFontAdapter implements IFont {
     }
 
     public int charWidth(char ch) {
-        return font.charWidth(ch);
+        if (ch >= charWidths.length) {
+            return font.charWidth(ch);
+        }
+        int w = charWidths[ch];
+        if (w == 0) {
+            w = charWidths[ch] = font.charWidth(ch);
+        }
+        return w;
     }
 
     public int getHeight() {
@@ -76,4 +89,45 @@ class SystemFontAdapter implements IFont {
         return font.substringWidth(str, offset, len);
     }
 
+    /*
+     * MIDP fonts cannot measure prefixes or fit text, so those are done char by char.
+     */
+
+    public int measureRun(char[] ch, int offset, int length, int[] prefixWidths) {
+        // sum the cached char widths so a run measures the same as fitChars() counts
+        int w = 0;
+        for (int i = 0; i < length; i++) {
+            w += charWidth(ch[offset + i]);
+            if (prefixWidths != null) {
+                prefixWidths[i] = w;
+            }
+        }
+        return w;
+    }
+
+    public int fitChars(char[] ch, int offset, int length, int maxWidth) {
+        int w = 0;
+        for (int i = 0; i < length; i++) {
+            w += charWidth(ch[offset + i]);
+            if (w > maxWidth) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    public int drawRun(Graphics g, char[] ch, int offset, int length, int x, int y, int anchor) {
+        g.setFont(font);
+        g.drawChars(ch, offset, length, x, y, anchor);
+        return measureRun(ch, offset, length, null);
+    }
+
+    public boolean equals(Object obj) {
+        return (obj instanceof SystemFontAdapter) && ((SystemFontAdapter) obj).font == font;
+    }
+
+    public int hashCode() {
+        return font.hashCode();
+    }
+
 }
@@ -21,6 +21,7 @@ package org.edc.sstone.j2me.font;
 import java.util.Vector;
 
 import org.edc.sstone.ui.model.Dimension;
+import org.edc.sstone.util.TextLayout;
 
 /*
  * TODO: move TextFunc functions and remove this class (?)
@@ -31,12 +32,8 @@ import org.edc.sstone.ui.model.Dimension;
 public class TextFunc {
 
     public static Dimension calculateSize(IFont font, float lineHeight, Vector lines, boolean addSpaceAboveFirstLine) {
-        /*
-         * note that we ALWAYS round the lineHeight * fontHeight DOWN... so, e.g., 1.1f * 18px =
-         * 19.8f, which gets rounded down to 19px, resulting in a line spacing of 1px
-         */
-        int lineSpacing = ((int) (lineHeight * font.getHeight())) - font.getHeight();
-        int height = getSegmentHeight(font, lineSpacing, lines.size(), addSpaceAboveFirstLine);
+        int lineSpacing = getLineSpacing(font, lineHeight);
+        int height = getSegmentHeight(font.getHeight(), lineSpacing, lines.size(), addSpaceAboveFirstLine);
         int width = 0;
         for (int i = 0; i < lines.size(); i++) {
             width = Math.max(width, font.stringWidth(getLine(lines, i)));
@@ -44,17 +41,35 @@ public class TextFunc {
         return new Dimension(width, height);
     }
 
+    /**
+     * Same as {@link #calculateSize(IFont, float, Vector, boolean)}, but the lines were already
+     * measured when the text was laid out, so nothing is measured again.
+     */
+    public static Dimension calculateSize(IFont font, float lineHeight, TextLayout layout,
+            boolean addSpaceAboveFirstLine) {
+        return new Dimension(layout.getMaxLineWidth(),
+                layout.getHeight(getLineSpacing(font, lineHeight), addSpaceAboveFirstLine));
+    }
+
+    /**
+     * note that we ALWAYS round the lineHeight * fontHeight DOWN... so, e.g., 1.1f * 18px = 19.8f,
+     * which gets rounded down to 19px, resulting in a line spacing of 1px
+     */
+    public static int getLineSpacing(IFont font, float lineHeight) {
+        return ((int) (lineHeight * font.getHeight())) - font.getHeight();
+    }
+
     private static String getLine(Vector lines, int i) {
         return (String) lines.elementAt(i);
     }
 
-    private static int getSegmentHeight(IFont font, int lineSpacing, int count, boolean addSpaceAboveFirstLine) {
+    public static int getSegmentHeight(int fontHeight, int lineSpacing, int count, boolean addSpaceAboveFirstLine) {
         if (addSpaceAboveFirstLine) {
-            return count * (font.getHeight() + lineSpacing);
+            return count * (fontHeight + lineSpacing);
         }
 
         if (count == 0)
             return 0;
-        return ((font.getHeight() + lineSpacing) * count) - lineSpacing;
+        return ((fontHeight + lineSpacing) * count) - lineSpacing;
     }
 }
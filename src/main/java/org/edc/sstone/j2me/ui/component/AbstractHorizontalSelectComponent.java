@@ -31,6 +31,7 @@ import org.edc.sstone.j2me.ui.KeyCode;
 import org.edc.sstone.j2me.ui.style.Style;
 import org.edc.sstone.ui.model.Dimension;
 import org.edc.sstone.util.Text;
+import org.edc.sstone.util.TextLayout;
 
 /**
  * @author Greg Orlowski
@@ -66,12 +67,11 @@ public abstract class AbstractHorizontalSelectComponent extends Component {
 
     protected String[] splitTitle(String title) {
         int viewportWidth = Registry.getManager().getTheme().getContentWidth();
-        Vector lines = new Vector();
-        Text.splitLines(getFont(), title, lines, viewportWidth);
+        TextLayout layout = Text.layout(getFont(), title, null, viewportWidth, null);
 
-        String[] ret = new String[lines.size()];
+        String[] ret = new String[layout.getLineCount()];
         for (int i = 0; i < ret.length; i++)
-            ret[i] = lines.elementAt(i).toString();
+            ret[i] = layout.getLine(i);
 
         return ret;
     }
@@ -87,10 +87,12 @@ public abstract class AbstractHorizontalSelectComponent extends Component {
     }
 
     protected void paintTitle(Graphics g, int width, int height, boolean selected) {
+        IFont font = getFont();
+        int lineHeight = (int) (font.getHeight() * 1.1f);
         int y = 0;
         for (int i = 0; i < title.length; i++) {
-            getFont().drawString(g, title[i] + ":", 0, y, Graphics.LEFT | Graphics.TOP);
-            y += (int) (getFont().getHeight() * 1.1f);
+            font.drawString(g, title[i] + ":", 0, y, Graphics.LEFT | Graphics.TOP);
+            y += lineHeight;
         }
     }
 
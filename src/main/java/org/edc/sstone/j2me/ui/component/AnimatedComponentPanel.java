@@ -20,14 +20,14 @@ package org.edc.sstone.j2me.ui.component;
 
 import org.edc.sstone.Constants;
 import org.edc.sstone.j2me.core.Registry;
+import org.edc.sstone.j2me.core.ScheduledTask;
+import org.edc.sstone.j2me.core.TaskQueue;
 import org.edc.sstone.j2me.device.BacklightControl;
 import org.edc.sstone.j2me.ui.menu.MenuButton;
 import org.edc.sstone.j2me.ui.scroll.ScrollDirection;
 import org.edc.sstone.j2me.ui.scroll.VerticalScreenPosition;
 import org.edc.sstone.j2me.ui.style.Style;
 import org.edc.sstone.log.Log;
-import org.edc.sstone.util.TimerQueue;
-import org.edc.sstone.util.TimerTask;
 
 /**
  * @author Greg Orlowski
@@ -35,7 +35,7 @@ import org.edc.sstone.util.TimerTask;
 public class AnimatedComponentPanel extends ComponentContentPanel {
 
     protected int selectedComponent = 0;
-    TimerQueue executionQueue;
+    TaskQueue executionQueue;
     boolean shouldWait = false;
     boolean animationRunning = false;
     boolean continueAnimation = true;
@@ -67,12 +67,16 @@ public class AnimatedComponentPanel extends ComponentContentPanel {
 
     protected void cancelAnimation() {
         continueAnimation = false;
-        executionQueue.cleanup();
+        if (executionQueue != null) {
+            executionQueue.cleanup();
+        }
     }
 
     public void restartAnimation() {
         enableReplay(false);
-        executionQueue.cleanup();
+        if (executionQueue != null) {
+            executionQueue.cleanup();
+        }
         scrollManager.resetToTop();
         animationRunning = false;
         getScreen().repaint(); // once animationRunning is false, repainting will restart animation
@@ -80,7 +84,11 @@ public class AnimatedComponentPanel extends ComponentContentPanel {
 
     public void animate() {
         animationRunning = true;
-        executionQueue = new TimerQueue();
+        if (executionQueue == null) {
+            executionQueue = new TaskQueue(Registry.getManager().getScheduler());
+        } else {
+            executionQueue.cleanup();
+        }
 
         boolean firstTimerTask = true;
         final int componentCount = getComponents().size();
@@ -112,7 +120,7 @@ public class AnimatedComponentPanel extends ComponentContentPanel {
     }
 
     private void addReplayTask() {
-        executionQueue.scheduleOnce(new TimerTask() {
+        executionQueue.scheduleOnce(new ScheduledTask(true) {
             public void run() {
                 enableReplay(true);
                 getScreen().repaint();
@@ -147,8 +155,8 @@ public class AnimatedComponentPanel extends ComponentContentPanel {
         cancelAnimation();
     }
 
-    protected TimerTask createComponentAnimationTask(final AnimatedComponent c) {
-        final TimerTask task = new TimerTask() {
+    protected ScheduledTask createComponentAnimationTask(final AnimatedComponent c) {
+        final ScheduledTask task = new ScheduledTask(true) {
             public void run() {
                 if (continueAnimation && c.hasMoreFrames()) {
                     c.advanceFrame(scrollManager);
@@ -172,7 +180,7 @@ public class AnimatedComponentPanel extends ComponentContentPanel {
     protected void advancePastComponent(final Component c, final int componentIdx, boolean forFirstAnimatedComponent) {
         final Style componentStyle = c.getStyle();
         Log.debug("Calling advancePastComponent: " + c.getClass().getName() + " -- " + componentIdx);
-        executionQueue.schedule(new TimerTask() {
+        executionQueue.schedule(new ScheduledTask(true) {
             public void run() {
                 if (continueAnimation && scrollManager.getLastVisibleComponentIdx() <= componentIdx
                         && scrollManager.canScroll(ScrollDirection.DOWN)) {
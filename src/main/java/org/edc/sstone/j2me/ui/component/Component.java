@@ -29,6 +29,7 @@ import org.edc.sstone.j2me.ui.screen.ComponentScreen;
 import org.edc.sstone.j2me.ui.scroll.ScrollDirection;
 import org.edc.sstone.j2me.ui.scroll.ScrollableComponent;
 import org.edc.sstone.j2me.ui.scroll.VerticalScreenPosition;
+import org.edc.sstone.j2me.ui.style.AbstractStyle;
 import org.edc.sstone.j2me.ui.style.Style;
 import org.edc.sstone.ui.model.Dimension;
 
@@ -50,6 +51,16 @@ public abstract class Component implements ScrollableComponent {
 
     private Style componentStyle;
 
+    /*
+     * Where the content area of this component was last painted, relative to the origin of the
+     * canvas. This lets a component repaint part of itself without knowing its container's layout.
+     */
+    private boolean painted = false;
+    private int paintedX;
+    private int paintedY;
+    private int paintedWidth;
+    private int paintedHeight;
+
     protected Component() {
     }
 
@@ -147,6 +158,12 @@ public abstract class Component implements ScrollableComponent {
         g.clipRect(0, 0, maxWidth, height);
         // g.clipRect(0, 0, width, height*2);
 
+        paintedX = g.getTranslateX();
+        paintedY = g.getTranslateY();
+        paintedWidth = maxWidth;
+        paintedHeight = height;
+        painted = true;
+
         // paint the background:
         int originalColor = g.getColor();
 
@@ -221,7 +238,13 @@ public abstract class Component implements ScrollableComponent {
     }
 
     public int getLeftEdge(int viewportWidth) {
-        int componentWidth = getPreferredSize().width;
+        return getLeftEdge(viewportWidth, getPreferredSize().width);
+    }
+
+    /**
+     * @return the left edge of a component that is <code>componentWidth</code> pixels wide
+     */
+    protected int getLeftEdge(int viewportWidth, int componentWidth) {
         int hAlign = getStyle().getComponentHorizontalAnchor();
 
         switch (hAlign) {
@@ -255,6 +278,36 @@ public abstract class Component implements ScrollableComponent {
         }
     }
 
+    /**
+     * Repaints a rectangle of this component. The rectangle is relative to the top-left corner of
+     * the content area, like the coordinates in {@link #paintComponent(Graphics, int, int, boolean)}
+     * , and it is clipped to the area where the component was last painted. If the component has
+     * not been painted yet, the entire screen is repainted.
+     * <p>
+     * Only use this if the component has not moved since it was last painted, e.g., not after it
+     * scrolled. The screen does not lay its components out again for a partial repaint.
+     */
+    public void repaint(int x, int y, int width, int height) {
+        DeviceScreen screen = this.screen;
+        if (screen == null || screenPosition == VerticalScreenPosition.NOT_SHOWN) {
+            // nothing to repaint if the component is not on the screen
+            return;
+        }
+        if (!painted) {
+            repaint();
+            return;
+        }
+        int left = Math.max(x, 0);
+        int top = Math.max(y, 0);
+        int right = Math.min(x + width, paintedWidth);
+        int bottom = Math.min(y + height, paintedHeight);
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        // the painted position is relative to the canvas, i.e., it includes the title bar
+        screen.repaintCanvas(paintedX + left, paintedY + top, right - left, bottom - top);
+    }
+
     /**
      * Called when a key is pressed.
      * <p>
@@ -331,7 +384,11 @@ public abstract class Component implements ScrollableComponent {
     // }
 
     protected IFont getFont() {
-        return Registry.getManager().getFontFactory().getFont(getStyle().getFontStyle());
+        Style style = getStyle();
+        if (style instanceof AbstractStyle) {
+            return ((AbstractStyle) style).getFont();
+        }
+        return Registry.getManager().getFontFactory().getFont(style.getFontStyle());
     }
 
 }
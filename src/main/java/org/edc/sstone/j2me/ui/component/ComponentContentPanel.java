@@ -22,12 +22,18 @@ import java.util.Enumeration;
 import java.util.Vector;
 
 import org.edc.sstone.j2me.core.DeviceScreen;
+import org.edc.sstone.j2me.core.MIDletManager;
 import org.edc.sstone.j2me.core.Registry;
+import org.edc.sstone.j2me.font.FontFactory;
 import org.edc.sstone.j2me.ui.KeyCode;
 import org.edc.sstone.j2me.ui.scroll.ScrollManager;
 import org.edc.sstone.j2me.ui.scroll.ScrollPosition;
 import org.edc.sstone.j2me.ui.scroll.VerticalScreenPosition;
+import org.edc.sstone.j2me.ui.style.ComponentStyle;
+import org.edc.sstone.j2me.ui.style.Style;
+import org.edc.sstone.j2me.ui.style.theme.Theme;
 import org.edc.sstone.log.Log;
+import org.edc.sstone.ui.model.Dimension;
 import org.edc.sstone.ui.model.Spacing;
 
 /**
@@ -38,12 +44,37 @@ public class ComponentContentPanel implements ComponentPanel {
     private final Vector components = new Vector();
     protected ScrollManager scrollManager;
 
+    /*
+     * Layout cache: the outer height (margins, padding and preferred height) of every component,
+     * and running sums of them. heightsAbove[i] is the height of components 0..i-1 and is valid up
+     * to heightsAboveValidIdx. The state it was measured for is kept so we know when to measure
+     * again.
+     */
+    private int[] componentHeights = new int[0];
+    private int[] heightsAbove = new int[1];
+    private int heightsAboveValidIdx = 0;
+    private int totalContentHeight = 0;
+
+    private boolean measured = false;
+    private int measuredWidth;
+    private int measuredHeight;
+    private Theme measuredTheme;
+    private int measuredFontGeneration;
+    private int measuredStyleGeneration;
+    private int layoutScrollVersion;
+    private boolean visibleLayoutValid = false;
+
+    // the range of components that may not be marked NOT_SHOWN
+    private int shownStart = 0;
+    private int shownEnd = -1;
+
     public ComponentContentPanel() {
         this.scrollManager = new ScrollManager(components);
     }
 
     public void addComponent(Component c) {
         components.addElement(c);
+        measured = false;
     }
 
     public Enumeration getVisibleComponents() {
@@ -72,102 +103,197 @@ public class ComponentContentPanel implements ComponentPanel {
 
     }
 
+    /**
+     * Lay out the components for the viewport. The outer height of every component is measured
+     * once and kept with running sums, so only the visible components are visited when the
+     * content scrolls. Nothing is done if nothing changed since the last call. Components are
+     * measured again after {@link #addComponent(Component)}, {@link #invalidateLayout()}, or a
+     * change of the viewport, theme, fonts or component styles.
+     */
     public void prepareLayout(final int viewportWidth, final int viewportHeight) {
+        MIDletManager manager = Registry.getManager();
+        Theme theme = manager.getTheme();
+        FontFactory fontFactory = manager.getFontFactory();
+        int fontGeneration = fontFactory != null ? fontFactory.getGeneration() : 0;
+        int styleGeneration = ComponentStyle.getSizeGeneration();
+
+        if (!measured
+                || viewportWidth != measuredWidth
+                || viewportHeight != measuredHeight
+                || theme != measuredTheme
+                || fontGeneration != measuredFontGeneration
+                || styleGeneration != measuredStyleGeneration) {
+            measureComponents(viewportWidth, viewportHeight);
+            measured = true;
+            measuredWidth = viewportWidth;
+            measuredHeight = viewportHeight;
+            measuredTheme = theme;
+            measuredFontGeneration = fontGeneration;
+            measuredStyleGeneration = styleGeneration;
+        } else if (visibleLayoutValid && layoutScrollVersion == scrollManager.getVersion()) {
+            return;
+        }
+        layoutVisibleComponents(viewportWidth, viewportHeight);
+        layoutScrollVersion = scrollManager.getVersion();
+        visibleLayoutValid = true;
+    }
 
-        int availableViewportHeight = viewportHeight;
-
-        int firstVisibleComponentIdx = scrollManager.getFirstVisibleComponentIdx();
-        int visibleComponentCount = 0;
-        int totalContentHeight = 0;
-        int scrollbarThumbPos = 0;
-        int totalComponentHeight = 0;
+    public void invalidateLayout() {
+        measured = false;
+    }
 
-        int padding = 0;
-        Spacing margin;
+    /**
+     * Lay out the visible components again before the next paint without measuring the others,
+     * e.g., after a visible component handled input.
+     */
+    protected void invalidateVisibleLayout() {
+        visibleLayoutValid = false;
+    }
 
-        // we always want to loop through all components because we need to get
-        // the total height to calculate scrollbar state
-        for (int i = 0; i < components.size(); i++) {
+    private void measureComponents(int viewportWidth, int viewportHeight) {
+        int count = components.size();
+        if (componentHeights.length < count) {
+            componentHeights = new int[count];
+            heightsAbove = new int[count + 1];
+        }
+        totalContentHeight = 0;
+        for (int i = 0; i < count; i++) {
             Component c = getComponent(i);
-            margin = c.getStyle().getMargin();
-            padding = c.getStyle().getPadding();
-
-            int preferredHeight = c.getPreferredSize().height + (padding * 2);
-            int preferredWidth = c.getPreferredSize().width + (padding * 2);
-            totalComponentHeight = margin.getTop() + preferredHeight + margin.getBottom();
-            int totalComponentWidth = margin.getLeft() + preferredWidth + margin.getRight();
-
-            /*
-             * If the component cannot be divided to render into the viewport, replace it with
-             * a warning message.
-             */
-            if ((totalComponentHeight > viewportHeight || totalComponentWidth > viewportWidth)
-                    && !c.canRenderInto(viewportWidth, viewportHeight)) {
-                String errorMessage = Registry
-                        .getManager()
-                        .getMessageSource()
-                        .getString(
-                                "component.does.not.fit",
-                                new Object[] { new Integer(i + 1), new Integer(totalComponentWidth),
-                                        new Integer(totalComponentHeight) });
-                Component warningMessageTextArea = c = new TextArea(errorMessage, viewportWidth);
-                components.setElementAt(warningMessageTextArea, i);
-                totalComponentHeight = preferredHeight = warningMessageTextArea.getPreferredSize().height;
-                totalComponentWidth = preferredWidth = warningMessageTextArea.getPreferredSize().width;
-                Log.warn(errorMessage);
+            Component fitted = fitIntoViewport(c, i, viewportWidth, viewportHeight);
+            if (fitted != c) {
+                components.setElementAt(fitted, i);
             }
+            int totalComponentHeight = getOuterHeight(fitted);
+            componentHeights[i] = totalComponentHeight;
+            totalContentHeight += totalComponentHeight;
+        }
+        heightsAbove[0] = 0;
+        heightsAboveValidIdx = 0;
+        shownStart = 0;
+        shownEnd = count - 1;
+    }
 
-            if (i < firstVisibleComponentIdx) {
-                // scrollbarThumbPos += (preferredHeight + margin.getTop() + margin.getBottom());
-                scrollbarThumbPos += totalComponentHeight;
-            }
+    /**
+     * @return <code>c</code>, or a warning message to show in its place if it cannot be divided to
+     *         render into the viewport
+     */
+    static Component fitIntoViewport(Component c, int idx, int viewportWidth, int viewportHeight) {
+        Style style = c.getStyle();
+        Spacing margin = style.getMargin();
+        int padding = style.getPadding();
+
+        Dimension size = c.getPreferredSize();
+        int totalComponentHeight = margin.getTop() + size.height + (padding * 2) + margin.getBottom();
+        int totalComponentWidth = margin.getLeft() + size.width + (padding * 2) + margin.getRight();
+
+        if ((totalComponentHeight > viewportHeight || totalComponentWidth > viewportWidth)
+                && !c.canRenderInto(viewportWidth, viewportHeight)) {
+            String errorMessage = Registry
+                    .getManager()
+                    .getMessageSource()
+                    .getString(
+                            "component.does.not.fit",
+                            new Object[] { new Integer(idx + 1), new Integer(totalComponentWidth),
+                                    new Integer(totalComponentHeight) });
+            Log.warn(errorMessage);
+            return new TextArea(errorMessage, viewportWidth);
+        }
+        return c;
+    }
+
+    /**
+     * @return the preferred height of <code>c</code> plus its margins and padding
+     */
+    static int getOuterHeight(Component c) {
+        Style style = c.getStyle();
+        Spacing margin = style.getMargin();
+        return margin.getTop() + c.getPreferredSize().height + (style.getPadding() * 2) + margin.getBottom();
+    }
+
+    private void layoutVisibleComponents(int viewportWidth, int viewportHeight) {
+        int availableViewportHeight = viewportHeight;
+        int firstVisibleComponentIdx = scrollManager.getFirstVisibleComponentIdx();
+        int visibleComponentCount = 0;
+        int count = components.size();
+
+        for (int i = firstVisibleComponentIdx; i < count && availableViewportHeight > 0; i++) {
+            Component c = getComponent(i);
+            Style style = c.getStyle();
+            Spacing margin = style.getMargin();
+            int padding = style.getPadding();
 
             int maxAvailableComponentHeight = availableViewportHeight
                     - (margin.getTop() + margin.getBottom() + (padding * 2));
 
-            // an optimization. Once we know that a given component does not
-            // fit in the remaining viewport height, set availableViewportHeight
-            // to 0 to stop rendering all subsequent components
-            // (avoids all subsequent components
-            if (availableViewportHeight > 0 && !c.canRenderInto(viewportWidth, maxAvailableComponentHeight))
-                availableViewportHeight = 0;
-
-            // if the component for index is at or below the first component to
-            // display and we have remaining screen real-estate, mark the component in the visible
-            // range
-            if (i >= firstVisibleComponentIdx && availableViewportHeight > 0) {
-
-                if (i == firstVisibleComponentIdx) {
-                    scrollbarThumbPos += c.getHeightAboveVisibleStart();
-                    c.setScreenPosition(VerticalScreenPosition.FIRST);
-                } else {
-                    c.setScreenPosition(VerticalScreenPosition.MIDDLE);
-                }
-
-                totalComponentHeight = margin.getTop()
-                        + c.calculateVisibleHeight(viewportWidth, maxAvailableComponentHeight)
-                        + margin.getBottom()
-                        + (padding * 2);
-
-                availableViewportHeight -= totalComponentHeight;
-                visibleComponentCount++;
-            } else {
-                c.setScreenPosition(VerticalScreenPosition.NOT_SHOWN);
+            // Once a component does not fit in the remaining viewport height, stop: neither it
+            // nor any of the components below it are rendered.
+            if (!c.canRenderInto(viewportWidth, maxAvailableComponentHeight)) {
+                break;
+            }
+
+            c.setScreenPosition(i == firstVisibleComponentIdx
+                    ? VerticalScreenPosition.FIRST
+                    : VerticalScreenPosition.MIDDLE);
+
+            // the preferred height of a visible component may change as it scrolls (e.g., an
+            // estimated height that becomes exact)
+            updateComponentHeight(i, getOuterHeight(c));
+
+            availableViewportHeight -= margin.getTop()
+                    + c.calculateVisibleHeight(viewportWidth, maxAvailableComponentHeight)
+                    + margin.getBottom()
+                    + (padding * 2);
+            visibleComponentCount++;
+        }
+
+        // only the components that were shown before need to be hidden
+        int lastVisibleComponentIdx = firstVisibleComponentIdx + visibleComponentCount - 1;
+        for (int i = shownStart; i <= shownEnd && i < count; i++) {
+            if (i < firstVisibleComponentIdx || i > lastVisibleComponentIdx) {
+                getComponent(i).setScreenPosition(VerticalScreenPosition.NOT_SHOWN);
             }
+        }
+        shownStart = firstVisibleComponentIdx;
+        shownEnd = lastVisibleComponentIdx;
 
-            // use the preferred height for scrollbar total height calculation
-            // totalContentHeight += (preferredHeight + margin.getTop() + margin.getBottom());
-            totalContentHeight += (margin.getTop() + preferredHeight + margin.getBottom());
+        int scrollbarThumbPos = 0;
+        if (firstVisibleComponentIdx < count) {
+            scrollbarThumbPos = getHeightAbove(firstVisibleComponentIdx)
+                    + getComponent(firstVisibleComponentIdx).getHeightAboveVisibleStart();
         }
 
         scrollManager.setVisibleComponentState(firstVisibleComponentIdx, visibleComponentCount);
         scrollManager.setScrollBarPos(scrollbarThumbPos, totalContentHeight);
 
-        if (getComponents().size() > 0) {
+        if (count > 0) {
             getComponent(scrollManager.getLastVisibleComponentIdx()).setScreenPosition(VerticalScreenPosition.LAST);
         }
     }
 
+    private void updateComponentHeight(int idx, int height) {
+        int delta = height - componentHeights[idx];
+        if (delta != 0) {
+            componentHeights[idx] = height;
+            totalContentHeight += delta;
+            if (heightsAboveValidIdx > idx) {
+                heightsAboveValidIdx = idx;
+            }
+        }
+    }
+
+    /**
+     * @return the total height of the components above component <code>idx</code>
+     */
+    private int getHeightAbove(int idx) {
+        for (int i = heightsAboveValidIdx; i < idx; i++) {
+            heightsAbove[i + 1] = heightsAbove[i] + componentHeights[i];
+        }
+        if (idx > heightsAboveValidIdx) {
+            heightsAboveValidIdx = idx;
+        }
+        return heightsAbove[idx];
+    }
+
     protected final Component getComponent(int i) {
         return components.size() > 0 ? (Component) components.elementAt(i) : null;
     }
@@ -213,6 +339,12 @@ public class ComponentContentPanel implements ComponentPanel {
         scrollManager.userScrollingEnabled = allow;
     }
 
+    /**
+     * Does nothing: the screen is set on each component when it is added.
+     */
+    public void setScreen(DeviceScreen screen) {
+    }
+
     protected DeviceScreen getScreen() {
         return (components == null || components.isEmpty())
                 ? null
@@ -20,6 +20,7 @@ package org.edc.sstone.j2me.ui.component;
 
 import java.util.Enumeration;
 
+import org.edc.sstone.j2me.core.DeviceScreen;
 import org.edc.sstone.j2me.ui.KeyCode;
 import org.edc.sstone.j2me.ui.scroll.ScrollPosition;
 
@@ -54,4 +55,17 @@ public interface ComponentPanel {
 
     public void setAllowUserScrolling(boolean allow);
 
+    /**
+     * Measure the components again before the next paint, e.g., after a component changed its size
+     * while it was not shown.
+     */
+    public void invalidateLayout();
+
+    /**
+     * Called by the screen that shows this panel, for panels that create their own components.
+     * 
+     * @param screen
+     */
+    public void setScreen(DeviceScreen screen);
+
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2012 EDC
+ * 
+ * This file is part of Stepping Stone.
+ * 
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.j2me.ui.component;
+
+/**
+ * Supplies the components of a {@link VirtualComponentPanel} by index. The panel only asks for the
+ * components in and near the viewport, and releases them again when they are scrolled far enough
+ * away, so a screen with hundreds of items never holds more than a handful of them.
+ * 
+ * @author Greg Orlowski
+ */
+public interface ComponentProvider {
+
+    /**
+     * @return the number of items
+     */
+    public int getCount();
+
+    /**
+     * Create the component for item <code>idx</code>.
+     * 
+     * @param recycled
+     *            a component that was released earlier and is no longer shown, or null. Return it
+     *            (updated to show item <code>idx</code>) to avoid allocating a new component, or
+     *            ignore it if it cannot be reused for this item.
+     * @param viewportWidth
+     *            the width the component will be laid out in
+     */
+    public Component getComponent(int idx, Component recycled, int viewportWidth);
+
+    /**
+     * This is called for every item, so it must not create the component. The estimate is replaced
+     * by the real height once the component has been created.
+     * 
+     * @return the approximate height of item <code>idx</code> in pixels, including its margins and
+     *         padding. It is used to size and position the scrollbar thumb.
+     */
+    public int estimateHeight(int idx, int viewportWidth);
+
+    /**
+     * The component of item <code>idx</code> is no longer needed. Free anything it holds that is
+     * expensive to keep (e.g., decoded images). The panel may pass it back to
+     * {@link #getComponent(int, Component, int)} later.
+     */
+    public void releaseComponent(int idx, Component c);
+
+}
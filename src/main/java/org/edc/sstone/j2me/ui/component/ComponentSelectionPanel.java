@@ -21,10 +21,8 @@ package org.edc.sstone.j2me.ui.component;
 import java.util.Enumeration;
 
 import org.edc.sstone.j2me.ui.KeyCode;
-import org.edc.sstone.j2me.ui.scroll.ScrollDirection;
 import org.edc.sstone.j2me.ui.scroll.ScrollHandler;
 import org.edc.sstone.j2me.ui.scroll.ScrollManager;
-import org.edc.sstone.j2me.ui.scroll.ScrollableComponent;
 
 /**
  * An extension of {@link ComponentContentPanel} that adds support for keeping focus on a component.
@@ -44,45 +42,18 @@ public class ComponentSelectionPanel extends ComponentContentPanel {
     }
 
     public boolean keyPressed(KeyCode keyCode) {
-
-        ScrollDirection direction = ScrollManager.getScrollDirection(keyCode);
-        int delta = (direction == ScrollDirection.DOWN ? 1 : -1);
-
-        boolean ret = false;
-
         Component c = getSelectedComponent();
         if (c != null && c.acceptsInput() && c.keyPressed(keyCode)) {
-            ret = true;
-        } else if (keyCode == KeyCode.DOWN || keyCode == KeyCode.UP) {
-            if ((direction == ScrollDirection.DOWN && selectedComponentIdx < scrollManager.getLastVisibleComponentIdx())
-                    || (direction == ScrollDirection.UP && selectedComponentIdx > scrollManager
-                            .getFirstVisibleComponentIdx())) {
-                selectedComponentIdx += delta;
-                return true;
-            } else {
-                /*
-                 * TODO: This is still a little off when scrolling down to a big indivisible
-                 * component. Write tests after I stabilize the UI.
-                 */
-                int edgeComponentIdx = getEdgeComponentIndex(direction);
-                ScrollableComponent edgeComponent = getComponent(edgeComponentIdx);
-                if (!edgeComponent.hasMore(direction)) {
-                    edgeComponentIdx += delta;
-                }
-                if (scrollManager.handleContentScrolling(keyCode)) {
-                    selectedComponentIdx = edgeComponentIdx;
-                    ret = true;
-                }
-            }
-
+            // the input may have changed the size of the component
+            invalidateVisibleLayout();
+            return true;
         }
-        return ret;
-    }
-
-    private int getEdgeComponentIndex(ScrollDirection direction) {
-        return (direction == ScrollDirection.UP)
-                ? scrollManager.getFirstVisibleComponentIdx()
-                : scrollManager.getLastVisibleComponentIdx();
+        int idx = scrollManager.moveSelection(keyCode, selectedComponentIdx);
+        if (idx == ScrollManager.SELECTION_NOT_MOVED) {
+            return false;
+        }
+        selectedComponentIdx = idx;
+        return true;
     }
 
     public void prepareLayout(int viewportWidth, int viewportHeight) {
@@ -62,6 +62,7 @@ public abstract class EvenlyDivisibleComponent extends Component {
                 visibleRangeEnd--;
             }
         } else if (direction == ScrollDirection.DOWN) {
+            prepareSegments(visibleRangeEnd + 1);
             if (visibleRangeEnd < getVerticalSegmentCount())
                 visibleRangeEnd++;
         }
@@ -71,6 +72,14 @@ public abstract class EvenlyDivisibleComponent extends Component {
 
     protected abstract int getVerticalSegmentCount();
 
+    /**
+     * Called before the visible range is moved or clipped to <code>segmentCount</code> segments,
+     * so a component whose segments are computed lazily can compute them. This does nothing by
+     * default; {@link #getVerticalSegmentCount()} must not change any state.
+     */
+    protected void prepareSegments(int segmentCount) {
+    }
+
     public int getVisibleHeight() {
         return getSegmentHeight(getVisibleSegmentCount());
     }
@@ -96,6 +105,7 @@ public abstract class EvenlyDivisibleComponent extends Component {
 
     private void clipFromTop(int availableViewportHeight) {
         int segmentCount = getVisibleSegmentCount(visibleRangeStart, availableViewportHeight);
+        prepareSegments(visibleRangeStart + segmentCount);
         visibleRangeEnd = Math.min(visibleRangeStart + segmentCount, getVerticalSegmentCount());
     }
 
@@ -38,7 +38,7 @@ public abstract class HighlightEnabledTextArea extends TextArea implements Anima
     }
 
     public String getHighlightedTokenString() {
-        return getHighlightedToken().text;
+        return getHighlightedToken().getText();
     }
 
     protected Text.Token getHighlightedToken() {
@@ -60,20 +60,25 @@ public abstract class HighlightEnabledTextArea extends TextArea implements Anima
         int textAnchor = getStyle().getTextAnchor();
 
         for (int i = visibleRangeStart; i < getVisibleRangeEnd(); i++) {
-            String line = getLine(i);
-
-            if (ishighlightingEnabled() && highlightedToken.lineIdx == i) {
+            // a hyphenated token has a piece on each line it spans
+            Text.Token piece = highlightedToken;
+            while (piece != null && piece.lineIdx < i) {
+                piece = piece.getContinuation();
+            }
+            if (piece != null && piece.lineIdx == i) {
                 int color = g.getColor();
                 //g.setColor(0xF6F27B);
                 g.setColor(getStyle().getHighlightColor());
-                g.fillRect(x + font.substringWidth(line, 0, highlightedToken.startPos) - 1,
+                g.fillRect(getLineLeft(x, layout.getLineWidth(i), textAnchor) + piece.x - 1,
                         y,
-                        highlightedToken.tokenWidth + 1,
-                        font.getHeight());
+                        piece.tokenWidth + 1,
+                        fontHeight);
                 g.setColor(color);
+                // the highlight is painted behind the text, so this line cannot use a cached image
+                drawLineChars(g, font, i, x, y, textAnchor);
+            } else {
+                drawLine(g, font, i, x, y, textAnchor, selected);
             }
-
-            font.drawString(g, line, x, y, textAnchor);
             y += (lineSpacing + fontHeight);
         }
     }
@@ -86,12 +91,36 @@ public abstract class HighlightEnabledTextArea extends TextArea implements Anima
         return hasMoreTokens();
     }
 
+    /**
+     * Moves the highlight to the next token. Unless that scrolls the text, only the rectangles of
+     * the previous and the new token are repainted.
+     */
     public void advanceFrame(ScrollHandler scrollHandler) {
+        Text.Token previousToken = getHighlightedToken();
         advanceTokenPointer();
         if (isSelfScrollNeeded() && scrollHandler.canScroll(ScrollDirection.DOWN)) {
             scrollHandler.scroll(ScrollDirection.DOWN);
+            repaint();
+        } else {
+            repaintToken(previousToken);
+            repaintToken(getHighlightedToken());
+        }
+    }
+
+    /**
+     * Repaint the highlight rectangle of every visible piece of <code>token</code>
+     */
+    protected void repaintToken(Text.Token token) {
+        int x = calculateXAnchor();
+        int textAnchor = getStyle().getTextAnchor();
+        int fontHeight = layout.getFontHeight();
+        for (; token != null; token = token.getContinuation()) {
+            int i = token.lineIdx;
+            if (i >= visibleRangeStart && i < getVisibleRangeEnd()) {
+                repaint(getLineLeft(x, layout.getLineWidth(i), textAnchor) + token.x - 1, getLineTop(i),
+                        token.tokenWidth + 1, fontHeight);
+            }
         }
-        repaint();
     }
 
     protected void advanceTokenPointer() {
@@ -103,7 +132,7 @@ public abstract class HighlightEnabledTextArea extends TextArea implements Anima
     }
 
     protected boolean isSelfScrollNeeded() {
-        return getHighlightedToken().lineIdx > (getVisibleRangeEnd() - 1);
+        return getHighlightedToken().getLastPiece().lineIdx > (getVisibleRangeEnd() - 1);
     }
 
     public void reset() {
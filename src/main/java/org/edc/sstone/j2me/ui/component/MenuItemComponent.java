@@ -18,8 +18,6 @@
  */
 package org.edc.sstone.j2me.ui.component;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.Graphics;
 
 import org.edc.sstone.event.MenuEvent;
@@ -31,13 +29,14 @@ import org.edc.sstone.j2me.ui.style.Style;
 import org.edc.sstone.ui.model.Dimension;
 import org.edc.sstone.util.StdLib;
 import org.edc.sstone.util.Text;
+import org.edc.sstone.util.TextLayout;
 
 /**
  * @author Greg Orlowski
  */
 public class MenuItemComponent extends Component {
 
-    private final Vector lines = new Vector();
+    private final TextLayout layout;
     private Dimension dimensions;
     private MenuListener menuListener;
 
@@ -51,7 +50,7 @@ public class MenuItemComponent extends Component {
         if(text == null || text.length() == 0) {
             text = ">>";
         }
-        Text.splitLines(getFont(), text, lines, viewportWidth);
+        layout = Text.layout(getFont(), text, null, viewportWidth, null);
         recalculateSize();
     }
 
@@ -67,10 +66,6 @@ public class MenuItemComponent extends Component {
         return KeyCode.SELECT_ITEM_CODES;
     }
 
-    private String getLine(int i) {
-        return (String) lines.elementAt(i);
-    }
-
     protected void paintComponent(Graphics g, int width, int height, boolean selected) {
         IFont font = getFont();
         int y = 0;
@@ -80,14 +75,16 @@ public class MenuItemComponent extends Component {
         if (lineHeight == font.getHeight())
             lineHeight++;
 
-        for (int i = 0; i < lines.size(); i++) {
-            font.drawString(g, getLine(i), 0, y, Graphics.LEFT | Graphics.TOP);
+        char[] chars = layout.getChars();
+        for (int i = 0; i < layout.getLineCount(); i++) {
+            font.drawChars(g, chars, layout.getLineStart(i), layout.getLineLength(i), 0, y,
+                    Graphics.LEFT | Graphics.TOP);
             y += lineHeight;
         }
     }
 
     protected void recalculateSize() {
-        dimensions = TextFunc.calculateSize(getFont(), getStyle().getLineHeight(), lines, false);
+        dimensions = TextFunc.calculateSize(getFont(), getStyle().getLineHeight(), layout, false);
     }
 
     public Dimension getPreferredSize() {
@@ -21,12 +21,18 @@ package org.edc.sstone.j2me.ui.component;
 import java.util.Vector;
 
 import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
 
 import org.edc.sstone.j2me.font.IFont;
+import org.edc.sstone.j2me.font.TextFunc;
+import org.edc.sstone.j2me.ui.scroll.ScrollDirection;
 import org.edc.sstone.j2me.ui.style.Style;
 import org.edc.sstone.j2me.ui.style.theme.Theme;
+import org.edc.sstone.j2me.ui.util.LineImageCache;
+import org.edc.sstone.j2me.ui.util.TextLayoutCache;
 import org.edc.sstone.ui.model.Dimension;
 import org.edc.sstone.util.Text;
+import org.edc.sstone.util.TextLayout;
 
 /*
  * TODO: pass in font + colors as args to an overloaded ctor.
@@ -41,11 +47,58 @@ import org.edc.sstone.util.Text;
  */
 public class TextArea extends EvenlyDivisibleComponent {
 
+    private static final int HORIZONTAL_ANCHOR_MASK = (Graphics.LEFT | Graphics.RIGHT | Graphics.HCENTER);
+
+    /**
+     * Texts longer than this (in chars) are laid out lazily unless they are tokenized: lines are
+     * only broken as far as they are scrolled to, and the height is estimated until the whole text
+     * is laid out.
+     */
+    public static final int LAZY_LAYOUT_MIN_CHARS = 1024;
+
+    /**
+     * The number of lines broken up front for a lazy layout. This should be more than fit on a
+     * screen.
+     */
+    private static final int LAZY_LAYOUT_INITIAL_LINES = 40;
+
+    /**
+     * How many lines past the end of the visible range a lazy layout is kept broken
+     */
+    private static final int LAZY_LAYOUT_AHEAD_LINES = 20;
+
+    /**
+     * Pre-rendered lines shared by all text areas. When this is null (the default), lines are
+     * drawn glyph-by-glyph on every paint.
+     */
+    private static LineImageCache lineImageCache;
+
+    /**
+     * Laid out texts shared by all text areas. When this is null, the text is broken into lines
+     * every time a text area is created or recalculated.
+     */
+    private static TextLayoutCache layoutCache;
+
+    /**
+     * This text area's slots in {@link #lineImageCache}, indexed by line
+     */
+    private LineImageCache.Entry[] lineImages;
+
     private final String text;
     private Dimension dimensions = null;
+
+    /*
+     * The state of the layout when dimensions were calculated. While a lazy layout is incomplete,
+     * the dimensions are an estimate that is refreshed as more lines are broken.
+     */
+    private int dimensionsLineCount;
+    private boolean dimensionsComplete;
     protected Vector tokens;
 
-    protected Vector lines = new Vector(); // vector of strings
+    /**
+     * The displayed text and the offsets and widths of its lines
+     */
+    protected TextLayout layout;
     // protected IFont font;
     protected int viewportWidth;
 
@@ -87,7 +140,7 @@ public class TextArea extends EvenlyDivisibleComponent {
             tokens = new Vector();
         }
         if (recalculateSplitLines) {
-            recalculate(lines, tokens, viewportWidth, syllableSeparator);
+            recalculate(tokens, viewportWidth, syllableSeparator);
         }
     }
 
@@ -97,40 +150,118 @@ public class TextArea extends EvenlyDivisibleComponent {
      * TODO: This is private for the time being until we figure out where and how to handle theme
      * re-initialization.
      */
-    protected void recalculate(Vector lines, Vector tokens, int viewportWidth, Character syllableSeparator) {
+    protected void recalculate(Vector tokens, int viewportWidth, Character syllableSeparator) {
         Style style = getStyle();
 
         IFont font = getFont();
-        this.lineSpacing = ((int) (style.getLineHeight() * font.getHeight())) - font.getHeight();
+        this.lineSpacing = TextFunc.getLineSpacing(font, style.getLineHeight());
         this.viewportWidth = viewportWidth;
-        Text.splitLines(font, text, lines, tokens, viewportWidth, syllableSeparator);
+        if (tokens != null) {
+            tokens.removeAllElements();
+        }
+        TextLayoutCache cache = layoutCache;
+        layout = (cache != null) ? cache.get(text, font, viewportWidth, syllableSeparator, tokens) : null;
+        if (layout == null) {
+            if (tokens == null && text.length() > LAZY_LAYOUT_MIN_CHARS) {
+                layout = Text.startLayout(font, text, null, viewportWidth, syllableSeparator);
+                layout.layoutUntil(LAZY_LAYOUT_INITIAL_LINES);
+            } else {
+                layout = Text.layout(font, text, tokens, viewportWidth, syllableSeparator);
+            }
+            if (cache != null) {
+                cache.put(text, font, viewportWidth, syllableSeparator, layout, tokens);
+            }
+        }
+        releaseLineImages();
         visibleRangeStart = 0;
         setVisibleRangeEnd(getVerticalSegmentCount());
-        dimensions = calculateDimensions();
+        calculateDimensions();
     }
 
-    // TODO: we could optimize this by doing it in splitLines.
-    private Dimension calculateDimensions() {
-        int x, maxX = 0;
-        int lineCount = getVerticalSegmentCount();
+    /**
+     * @deprecated the lines are kept in {@link #layout}. Use
+     *             {@link #recalculate(Vector, int, Character)} and {@link #getLine(int)}. This
+     *             lays out the whole text and copies every line into <code>lines</code> as a
+     *             String.
+     */
+    protected void recalculate(Vector lines, Vector tokens, int viewportWidth, Character syllableSeparator) {
+        recalculate(tokens, viewportWidth, syllableSeparator);
+        if (lines != null) {
+            lines.removeAllElements();
+            layout.layoutUntil(Integer.MAX_VALUE);
+            for (int i = 0, n = layout.getLineCount(); i < n; i++) {
+                lines.addElement(getLine(i));
+            }
+        }
+    }
 
-        // int padding = getStyle().getPadding();
+    private void calculateDimensions() {
+        dimensionsLineCount = layout.getLineCount();
+        dimensionsComplete = layout.isComplete();
+        dimensions = TextFunc.calculateSize(getFont(), getStyle().getLineHeight(), layout,
+                addSpaceAboveFirstLine);
+    }
 
-        IFont font = getFont();
-        for (int i = 0; i < lineCount; i++) {
-            x = font.stringWidth(getLine(i));
-            maxX = x > maxX ? x : maxX;
+    /**
+     * Install (or, with <code>null</code>, remove) the cache of pre-rendered lines used by all text
+     * areas.
+     */
+    public static void setLineImageCache(LineImageCache cache) {
+        lineImageCache = cache;
+    }
+
+    /**
+     * Install (or, with <code>null</code>, remove) the cache of laid out text used by all text
+     * areas.
+     */
+    public static void setLayoutCache(TextLayoutCache cache) {
+        layoutCache = cache;
+    }
+
+    protected void releaseLineImages() {
+        LineImageCache cache = lineImageCache;
+        if (cache != null && lineImages != null) {
+            cache.clear(lineImages);
         }
-        // + (padding * 2)
-        return new Dimension(maxX, getSegmentHeight(lineCount));
+        lineImages = null;
     }
 
+    /**
+     * @return the number of lines laid out so far
+     */
     protected int getVerticalSegmentCount() {
-        return lines.size();
+        return layout.getLineCount();
     }
 
+    /**
+     * For a lazy layout, this breaks lines until there are {@link #LAZY_LAYOUT_AHEAD_LINES} more
+     * than <code>segmentCount</code>, so scrolling down keeps extending the layout.
+     */
+    protected void prepareSegments(int segmentCount) {
+        if (!layout.isComplete()) {
+            layout.layoutUntil(segmentCount + LAZY_LAYOUT_AHEAD_LINES);
+        }
+    }
+
+    public boolean hasMore(ScrollDirection direction) {
+        // a lazy layout has more lines even if none past the visible range are broken yet
+        return super.hasMore(direction) || (direction == ScrollDirection.DOWN && !layout.isComplete());
+    }
+
+    /**
+     * @return line <code>idx</code> as a new String. Painting draws lines straight from the
+     *         layout; this is for callers that need a String.
+     */
     protected String getLine(int idx) {
-        return (String) lines.elementAt(idx);
+        return layout.getLine(idx);
+    }
+
+    /**
+     * Draw line <code>idx</code> directly (without the line image cache)
+     */
+    protected void drawLineChars(Graphics g, IFont font, int idx, int x, int y, int textAnchor) {
+        font.drawChars(g, layout.getChars(), layout.getLineStart(idx), layout.getLineLength(idx), x, y,
+                textAnchor);
     }
 
     /**
@@ -139,10 +270,17 @@ public class TextArea extends EvenlyDivisibleComponent {
      * @return
      */
     protected int calculateXAnchor() {
-        int componentWidth = dimensions.width;
+        /*
+         * The preferred width of an incomplete lazy layout grows as wider lines are found, so
+         * anchor on the width the text is broken at until it is complete. Otherwise centered or
+         * right-aligned text would move sideways while it is scrolled.
+         */
+        int componentWidth = layout.isComplete()
+                ? getPreferredSize().width
+                : layout.getMaxWidth();
         // int x = 0;
 
-        int x = getLeftEdge(viewportWidth);
+        int x = getLeftEdge(viewportWidth, componentWidth);
         int textHorizontalJustification = getStyle().getTextHorizontalAnchor();
 
         // now adjust for the text justification
@@ -174,9 +312,8 @@ public class TextArea extends EvenlyDivisibleComponent {
             y += lineSpacing;
 
         for (int i = visibleRangeStart; i < getVisibleRangeEnd(); i++) {
-            String line = getLine(i);
             // if (dimensions.width <= width || font.stringWidth(line) <= width) {
-            font.drawString(g, line, x, y, textAnchor);
+            drawLine(g, font, i, x, y, textAnchor, selected);
             // } else {
             // TODO: we probably do not need to worry about truncating the right-side
             // int len = line.length();
@@ -188,7 +325,95 @@ public class TextArea extends EvenlyDivisibleComponent {
         }
     }
 
+    /**
+     * Draws line <code>idx</code>. If a line image cache is installed and the line sits on the
+     * plain component background, the line is rendered into an image once and that image is
+     * blitted on later paints.
+     */
+    protected void drawLine(Graphics g, IFont font, int idx, int x, int y, int textAnchor, boolean selected) {
+        LineImageCache cache = lineImageCache;
+        if (cache == null || selected || (textAnchor & Graphics.TOP) == 0) {
+            drawLineChars(g, font, idx, x, y, textAnchor);
+            return;
+        }
+
+        Style style = getStyle();
+        int fontColor = style.getFontColor();
+        int backgroundColor = style.getBackgroundColor();
+
+        int slotCount = Math.max(idx + 1, layout.getEstimatedLineCount());
+        if (lineImages == null) {
+            lineImages = new LineImageCache.Entry[slotCount];
+        } else if (idx >= lineImages.length) {
+            // a lazy layout may have grown since the slots were allocated
+            lineImages = cache.grow(lineImages, slotCount);
+        }
+
+        Image image = cache.get(lineImages, idx, font, fontColor, backgroundColor);
+        if (image == null) {
+            image = renderLine(font, layout, idx, fontColor, backgroundColor);
+            if (image == null) {
+                drawLineChars(g, font, idx, x, y, textAnchor);
+                return;
+            }
+            cache.put(lineImages, idx, image, font, fontColor, backgroundColor);
+        }
+
+        g.drawImage(image, getLineLeft(x, image.getWidth(), textAnchor), y, Graphics.LEFT | Graphics.TOP);
+    }
+
+    /**
+     * @param x
+     *            the x anchor of the text (see {@link #calculateXAnchor()})
+     * @return the x of the left edge of a line that is <code>lineWidth</code> pixels wide
+     */
+    protected static int getLineLeft(int x, int lineWidth, int textAnchor) {
+        switch (textAnchor & HORIZONTAL_ANCHOR_MASK) {
+            case Graphics.HCENTER:
+                return x - (lineWidth / 2);
+            case Graphics.RIGHT:
+                return x - lineWidth;
+        }
+        return x;
+    }
+
+    /**
+     * @return the y of the top of line <code>idx</code> as it is painted by
+     *         {@link #paintComponent(Graphics, int, int, boolean)}
+     */
+    protected int getLineTop(int idx) {
+        int y = addSpaceAboveFirstLine ? lineSpacing : 0;
+        return y + (idx - visibleRangeStart) * (lineSpacing + layout.getFontHeight());
+    }
+
+    private static Image renderLine(IFont font, TextLayout layout, int idx, int fontColor, int backgroundColor) {
+        int w = layout.getLineWidth(idx);
+        if (w <= 0) {
+            return null;
+        }
+        try {
+            Image image = Image.createImage(w, font.getHeight());
+            Graphics g = image.getGraphics();
+            g.setColor(backgroundColor);
+            g.fillRect(0, 0, w, font.getHeight());
+            g.setColor(fontColor);
+            font.drawChars(g, layout.getChars(), layout.getLineStart(idx), layout.getLineLength(idx), 0, 0,
+                    Graphics.LEFT | Graphics.TOP);
+            return image;
+        } catch (OutOfMemoryError e) {
+            // fall back to drawing the line directly
+            return null;
+        }
+    }
+
+    /**
+     * While a lazy layout is incomplete, the height is estimated from the part of the text that
+     * was laid out so far, and the width is that of the widest line so far.
+     */
     public Dimension getPreferredSize() {
+        if (dimensionsLineCount != layout.getLineCount() || dimensionsComplete != layout.isComplete()) {
+            calculateDimensions();
+        }
         return dimensions;
     }
 
@@ -210,13 +435,7 @@ public class TextArea extends EvenlyDivisibleComponent {
     }
 
     protected int getSegmentHeight(int segmentCount) {
-        if (addSpaceAboveFirstLine) {
-            return segmentCount * (getFont().getHeight() + lineSpacing);
-        }
-
-        if (segmentCount == 0)
-            return 0;
-        return ((getFont().getHeight() + lineSpacing) * segmentCount) - lineSpacing;
+        return TextFunc.getSegmentHeight(getFont().getHeight(), lineSpacing, segmentCount, addSpaceAboveFirstLine);
     }
 
     public String toString() {
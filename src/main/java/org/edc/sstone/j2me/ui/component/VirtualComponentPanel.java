@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2012 EDC
+ * 
+ * This file is part of Stepping Stone.
+ * 
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.j2me.ui.component;
+
+import java.util.Enumeration;
+import java.util.Vector;
+
+import org.edc.sstone.j2me.core.DeviceScreen;
+import org.edc.sstone.j2me.core.MIDletManager;
+import org.edc.sstone.j2me.core.Registry;
+import org.edc.sstone.j2me.font.FontFactory;
+import org.edc.sstone.j2me.ui.KeyCode;
+import org.edc.sstone.j2me.ui.scroll.ScrollManager;
+import org.edc.sstone.j2me.ui.scroll.ScrollPosition;
+import org.edc.sstone.j2me.ui.scroll.ScrollableComponent;
+import org.edc.sstone.j2me.ui.scroll.ScrollableComponentList;
+import org.edc.sstone.j2me.ui.scroll.VerticalScreenPosition;
+import org.edc.sstone.j2me.ui.style.ComponentStyle;
+import org.edc.sstone.j2me.ui.style.Style;
+import org.edc.sstone.j2me.ui.style.theme.Theme;
+import org.edc.sstone.ui.model.Spacing;
+
+/**
+ * A {@link ComponentPanel} for long lists (e.g., a lesson index or a word list) that gets its
+ * components from a {@link ComponentProvider} instead of holding all of them. Only the visible
+ * components and {@link #LOOK_AHEAD} components above and below them exist at any time; the rest
+ * are represented by the height the provider estimates for them, which is used for the scrollbar
+ * until a component is created and measured.
+ * 
+ * Components cannot be added to this panel; call {@link #notifyDataChanged()} when the items of
+ * the provider change.
+ * 
+ * @author Greg Orlowski
+ */
+public class VirtualComponentPanel implements ComponentPanel, ScrollableComponentList {
+
+    /**
+     * The number of components created ahead of the viewport in each direction, so scrolling one
+     * item does not have to wait for a component to be built.
+     */
+    public static final int LOOK_AHEAD = 2;
+
+    private static final int MAX_RECYCLED = 4;
+
+    private final ComponentProvider provider;
+    protected final ScrollManager scrollManager;
+    private DeviceScreen screen;
+
+    private int count = 0;
+
+    // the components that exist, by index. Everything outside [windowStart, windowEnd] is null.
+    private Component[] components = new Component[0];
+    private int windowStart = 0;
+    private int windowEnd = -1;
+
+    // released components the provider may reuse
+    private final Vector recycled = new Vector();
+
+    /*
+     * Estimated or (once created) measured outer height of every item, and running sums of them.
+     * heightsAbove[i] is the height of items 0..i-1 and is valid up to heightsAboveValidIdx.
+     */
+    private int[] heights = new int[0];
+    private int[] heightsAbove = new int[1];
+    private int heightsAboveValidIdx = 0;
+    private int totalContentHeight = 0;
+
+    private boolean initialized = false;
+    private int viewportWidth;
+    private int viewportHeight;
+    private Theme layoutTheme;
+    private int layoutFontGeneration;
+    private int layoutStyleGeneration;
+    private boolean heightsValid = false;
+    private int layoutScrollVersion;
+    private boolean visibleLayoutValid = false;
+
+    public VirtualComponentPanel(ComponentProvider provider) {
+        this.provider = provider;
+        this.scrollManager = new ScrollManager(this);
+    }
+
+    /**
+     * The screen is set on the components this panel creates so they can repaint themselves.
+     */
+    public void setScreen(DeviceScreen screen) {
+        this.screen = screen;
+    }
+
+    /**
+     * Unsupported: the components come from the {@link ComponentProvider}.
+     */
+    public void addComponent(Component c) {
+        throw new IllegalStateException("Components of a VirtualComponentPanel come from its ComponentProvider");
+    }
+
+    /**
+     * Discard all components and estimates, e.g., after items were added to or removed from the
+     * provider.
+     */
+    public void notifyDataChanged() {
+        initialized = false;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public ScrollableComponent getComponent(int idx) {
+        return getOrCreateComponent(idx);
+    }
+
+    public Enumeration getVisibleComponents() {
+        return new Enumeration() {
+            int i = scrollManager.getFirstVisibleComponentIdx();
+
+            public boolean hasMoreElements() {
+                return i <= scrollManager.getLastVisibleComponentIdx();
+            }
+
+            public Object nextElement() {
+                return getOrCreateComponent(i++);
+            }
+        };
+    }
+
+    public void prepareLayout(int viewportWidth, int viewportHeight) {
+        MIDletManager manager = Registry.getManager();
+        Theme theme = manager.getTheme();
+        FontFactory fontFactory = manager.getFontFactory();
+        int fontGeneration = fontFactory != null ? fontFactory.getGeneration() : 0;
+        int styleGeneration = ComponentStyle.getSizeGeneration();
+
+        if (!initialized
+                || viewportWidth != this.viewportWidth
+                || viewportHeight != this.viewportHeight
+                || theme != layoutTheme
+                || fontGeneration != layoutFontGeneration) {
+            this.viewportWidth = viewportWidth;
+            this.viewportHeight = viewportHeight;
+            layoutTheme = theme;
+            layoutFontGeneration = fontGeneration;
+            layoutStyleGeneration = styleGeneration;
+            estimateHeights();
+            initialized = true;
+            heightsValid = true;
+        } else if (!heightsValid || styleGeneration != layoutStyleGeneration) {
+            layoutStyleGeneration = styleGeneration;
+            measureWindow();
+            heightsValid = true;
+        } else if (visibleLayoutValid && layoutScrollVersion == scrollManager.getVersion()) {
+            return;
+        }
+        layoutVisibleComponents();
+        layoutScrollVersion = scrollManager.getVersion();
+        visibleLayoutValid = true;
+    }
+
+    /**
+     * Measure the components that exist again before the next paint. The other items keep their
+     * estimated heights.
+     */
+    public void invalidateLayout() {
+        heightsValid = false;
+    }
+
+    /**
+     * Lay out the visible components again before the next paint, e.g., after a visible component
+     * handled input.
+     */
+    protected void invalidateVisibleLayout() {
+        visibleLayoutValid = false;
+    }
+
+    private void measureWindow() {
+        for (int i = windowStart; i <= windowEnd; i++) {
+            if (components[i] != null) {
+                updateHeight(i, ComponentContentPanel.getOuterHeight(components[i]));
+            }
+        }
+    }
+
+    private void estimateHeights() {
+        releaseComponents(windowStart, windowEnd);
+        recycled.removeAllElements();
+
+        count = provider.getCount();
+        if (components.length < count) {
+            components = new Component[count];
+            heights = new int[count];
+            heightsAbove = new int[count + 1];
+        }
+        totalContentHeight = 0;
+        for (int i = 0; i < count; i++) {
+            heights[i] = provider.estimateHeight(i, viewportWidth);
+            totalContentHeight += heights[i];
+        }
+        heightsAbove[0] = 0;
+        heightsAboveValidIdx = 0;
+        windowStart = 0;
+        windowEnd = -1;
+
+        if (scrollManager.getFirstVisibleComponentIdx() >= count) {
+            scrollManager.resetToTop();
+        }
+    }
+
+    private void layoutVisibleComponents() {
+        int availableViewportHeight = viewportHeight;
+        int firstVisibleComponentIdx = scrollManager.getFirstVisibleComponentIdx();
+        int visibleComponentCount = 0;
+
+        for (int i = firstVisibleComponentIdx; i < count && availableViewportHeight > 0; i++) {
+            Component c = getOrCreateComponent(i);
+            Style style = c.getStyle();
+            Spacing margin = style.getMargin();
+            int padding = style.getPadding();
+
+            int maxAvailableComponentHeight = availableViewportHeight
+                    - (margin.getTop() + margin.getBottom() + (padding * 2));
+            if (!c.canRenderInto(viewportWidth, maxAvailableComponentHeight)) {
+                break;
+            }
+
+            c.setScreenPosition(i == firstVisibleComponentIdx
+                    ? VerticalScreenPosition.FIRST
+                    : VerticalScreenPosition.MIDDLE);
+            updateHeight(i, ComponentContentPanel.getOuterHeight(c));
+
+            availableViewportHeight -= margin.getTop()
+                    + c.calculateVisibleHeight(viewportWidth, maxAvailableComponentHeight)
+                    + margin.getBottom()
+                    + (padding * 2);
+            visibleComponentCount++;
+        }
+        int lastVisibleComponentIdx = firstVisibleComponentIdx + visibleComponentCount - 1;
+
+        moveWindow(Math.max(0, firstVisibleComponentIdx - LOOK_AHEAD),
+                Math.min(count - 1, lastVisibleComponentIdx + LOOK_AHEAD));
+        for (int i = windowStart; i <= windowEnd; i++) {
+            if (i < firstVisibleComponentIdx || i > lastVisibleComponentIdx) {
+                getOrCreateComponent(i).setScreenPosition(VerticalScreenPosition.NOT_SHOWN);
+            }
+        }
+
+        int scrollbarThumbPos = 0;
+        if (firstVisibleComponentIdx < count) {
+            scrollbarThumbPos = getHeightAbove(firstVisibleComponentIdx)
+                    + getOrCreateComponent(firstVisibleComponentIdx).getHeightAboveVisibleStart();
+        }
+
+        scrollManager.setVisibleComponentState(firstVisibleComponentIdx, visibleComponentCount);
+        scrollManager.setScrollBarPos(scrollbarThumbPos, totalContentHeight);
+
+        if (visibleComponentCount > 0) {
+            getOrCreateComponent(lastVisibleComponentIdx).setScreenPosition(VerticalScreenPosition.LAST);
+        }
+    }
+
+    /**
+     * Release the components outside of [start, end] and create the ones inside it.
+     */
+    private void moveWindow(int start, int end) {
+        if (end < windowStart || start > windowEnd) {
+            releaseComponents(windowStart, windowEnd);
+        } else {
+            releaseComponents(windowStart, start - 1);
+            releaseComponents(end + 1, windowEnd);
+        }
+        windowStart = start;
+        windowEnd = end;
+        for (int i = start; i <= end; i++) {
+            getOrCreateComponent(i);
+        }
+    }
+
+    private void releaseComponents(int start, int end) {
+        for (int i = start; i <= end; i++) {
+            Component c = components[i];
+            if (c != null) {
+                components[i] = null;
+                c.setScreenPosition(VerticalScreenPosition.NOT_SHOWN);
+                provider.releaseComponent(i, c);
+                if (recycled.size() < MAX_RECYCLED) {
+                    recycled.addElement(c);
+                }
+            }
+        }
+    }
+
+    protected final Component getOrCreateComponent(int idx) {
+        Component c = components[idx];
+        if (c == null) {
+            Component old = recycled.isEmpty() ? null : (Component) recycled.lastElement();
+            c = provider.getComponent(idx, old, viewportWidth);
+            if (old != null && c == old) {
+                recycled.removeElementAt(recycled.size() - 1);
+            }
+            c.setScreen(screen);
+            c = ComponentContentPanel.fitIntoViewport(c, idx, viewportWidth, viewportHeight);
+            components[idx] = c;
+            if (idx < windowStart) {
+                windowStart = idx;
+            } else if (idx > windowEnd) {
+                windowEnd = idx;
+            }
+            updateHeight(idx, ComponentContentPanel.getOuterHeight(c));
+        }
+        return c;
+    }
+
+    private void updateHeight(int idx, int height) {
+        int delta = height - heights[idx];
+        if (delta != 0) {
+            heights[idx] = height;
+            totalContentHeight += delta;
+            if (heightsAboveValidIdx > idx) {
+                heightsAboveValidIdx = idx;
+            }
+        }
+    }
+
+    private int getHeightAbove(int idx) {
+        for (int i = heightsAboveValidIdx; i < idx; i++) {
+            heightsAbove[i + 1] = heightsAbove[i] + heights[i];
+        }
+        if (idx > heightsAboveValidIdx) {
+            heightsAboveValidIdx = idx;
+        }
+        return heightsAbove[idx];
+    }
+
+    public ScrollPosition getScrollPosition() {
+        return scrollManager.isScrollingNeeded() ? scrollManager.getScrollPosition() : null;
+    }
+
+    public boolean keyPressed(KeyCode keyCode) {
+        if (scrollManager.userScrollingEnabled && (keyCode == KeyCode.DOWN || keyCode == KeyCode.UP)) {
+            return scrollManager.handleContentScrolling(keyCode);
+        }
+        return false;
+    }
+
+    public boolean isSelected(Component c) {
+        return false;
+    }
+
+    public Component getSelectedComponent() {
+        return null;
+    }
+
+    /**
+     * Does nothing. Override to customize.
+     */
+    public void showNotify() {
+    }
+
+    /**
+     * Releases all components. They are created again the next time the panel is laid out.
+     */
+    public void hideNotify() {
+        releaseComponents(windowStart, windowEnd);
+        windowStart = 0;
+        windowEnd = -1;
+        recycled.removeAllElements();
+        initialized = false;
+    }
+
+    public void setAllowUserScrolling(boolean allow) {
+        scrollManager.userScrollingEnabled = allow;
+    }
+
+}
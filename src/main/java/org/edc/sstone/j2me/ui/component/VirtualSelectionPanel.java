@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2012 EDC
+ * 
+ * This file is part of Stepping Stone.
+ * 
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.j2me.ui.component;
+
+import org.edc.sstone.j2me.ui.KeyCode;
+import org.edc.sstone.j2me.ui.scroll.ScrollHandler;
+import org.edc.sstone.j2me.ui.scroll.ScrollManager;
+
+/**
+ * An extension of {@link VirtualComponentPanel} that keeps focus on a component, like
+ * {@link ComponentSelectionPanel} does for a {@link ComponentContentPanel}.
+ * 
+ * @author Greg Orlowski
+ */
+public class VirtualSelectionPanel extends VirtualComponentPanel {
+
+    protected int selectedComponentIdx = -1;
+
+    public VirtualSelectionPanel(ComponentProvider provider) {
+        super(provider);
+    }
+
+    public Component getSelectedComponent() {
+        return (selectedComponentIdx >= 0 && selectedComponentIdx < size())
+                ? getOrCreateComponent(selectedComponentIdx)
+                : null;
+    }
+
+    public boolean isSelected(Component c) {
+        return c == getSelectedComponent();
+    }
+
+    public boolean keyPressed(KeyCode keyCode) {
+        Component c = getSelectedComponent();
+        if (c != null && c.acceptsInput() && c.keyPressed(keyCode)) {
+            // the input may have changed the size of the component
+            invalidateVisibleLayout();
+            return true;
+        }
+        int idx = scrollManager.moveSelection(keyCode, selectedComponentIdx);
+        if (idx == ScrollManager.SELECTION_NOT_MOVED) {
+            return false;
+        }
+        selectedComponentIdx = idx;
+        return true;
+    }
+
+    public void prepareLayout(int viewportWidth, int viewportHeight) {
+        super.prepareLayout(viewportWidth, viewportHeight);
+        int first = scrollManager.getFirstVisibleComponentIdx();
+        int last = scrollManager.getLastVisibleComponentIdx();
+        if (selectedComponentIdx < first || selectedComponentIdx > last) {
+            selectedComponentIdx = first;
+            for (int i = first; i <= last; i++) {
+                if (getOrCreateComponent(i).acceptsInput()) {
+                    selectedComponentIdx = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    public ScrollHandler getScrollHandler() {
+        return scrollManager;
+    }
+
+}
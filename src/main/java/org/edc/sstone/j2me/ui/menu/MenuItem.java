@@ -31,6 +31,12 @@ public class MenuItem implements MenuListener {
 
     private MenuListener menuListener;
     public final String text;
+
+    /**
+     * After changing the icon of an item that is shown, call
+     * {@link org.edc.sstone.j2me.core.DeviceScreen#invalidateMenubar()} so a cached menubar image
+     * is painted again.
+     */
     public VectorIcon icon;
 
     protected MenuItem(MenuListener menuListener, String text, VectorIcon icon) {
@@ -47,6 +47,7 @@ public class MenuItemButton extends MenuButton {
 
     public void setIcon(VectorIcon icon) {
         menuItem.icon = icon;
+        screen.invalidateMenubar();
     }
 
 }
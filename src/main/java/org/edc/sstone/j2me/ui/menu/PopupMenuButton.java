@@ -56,6 +56,7 @@ public class PopupMenuButton extends MenuButton {
 
     public void addMenuItem(MenuItem item) {
         menuItems.addElement(item);
+        screen.invalidateMenubar();
     }
 
     public void paint(Graphics g, Theme theme, int screenWidth) {
@@ -45,6 +45,15 @@ public class ComponentScreen extends DeviceScreen {
 
     protected Style style;
 
+    /*
+     * True once the component panel has been laid out for the current state. A partial repaint
+     * (see Component.repaint(int, int, int, int)) does not change the layout, so it reuses the
+     * last one; a full repaint lays the components out again.
+     */
+    private boolean layoutValid = false;
+    private int layoutWidth;
+    private int layoutHeight;
+
     public ComponentScreen() {
         this(null, new ComponentContentPanel());
     }
@@ -52,6 +61,7 @@ public class ComponentScreen extends DeviceScreen {
     public ComponentScreen(Style style, ComponentPanel componentPanel) {
         this.style = style;
         this.componentPanel = componentPanel;
+        componentPanel.setScreen(this);
     }
 
     public Style getStyle() {
@@ -72,6 +82,25 @@ public class ComponentScreen extends DeviceScreen {
         }
     }
 
+    /**
+     * Repaints the entire screen and lays the visible components out again before they are
+     * painted. Components are only measured again after {@link #invalidateLayout()} or a change of
+     * the viewport, theme, fonts or component styles.
+     */
+    public void repaint() {
+        layoutValid = false;
+        super.repaint();
+    }
+
+    /**
+     * Measures all components again and repaints the screen, e.g., after a component changed its
+     * size while it was not shown.
+     */
+    public void invalidateLayout() {
+        componentPanel.invalidateLayout();
+        repaint();
+    }
+
     /**
      * OVERRIDE
      */
@@ -165,8 +194,15 @@ public class ComponentScreen extends DeviceScreen {
     protected void paintComponents(Graphics g, DeviceScreen screen,
             int x, int y, int viewportWidth, int viewportHeight) {
 
-        componentPanel.prepareLayout(viewportWidth, viewportHeight);
+        if (!layoutValid || layoutWidth != viewportWidth || layoutHeight != viewportHeight
+                || !isPartialRepaint(g, viewportHeight)) {
+            componentPanel.prepareLayout(viewportWidth, viewportHeight);
+            layoutValid = true;
+            layoutWidth = viewportWidth;
+            layoutHeight = viewportHeight;
+        }
 
+        int screenWidth = getScreenWidth();
         int availableViewportHeight = viewportHeight;
         int visibleHeight = 0;
         int heightPlusVSpace = 0;
@@ -184,19 +220,32 @@ public class ComponentScreen extends DeviceScreen {
             margin = c.getStyle().getMargin();
             heightPlusVSpace = (margin.getTop() + visibleHeight + margin.getBottom());
 
-            // TODO: if bottom or top component, I should do differently?
-            // actually, it seems OK for now
-            if (selected) {
-                paintComponentFocusDecorator(g, getStyle().getHighlightColor(), y + margin.getTop(),
-                        visibleHeight, c.acceptsInput());
-            }
+            // skip components outside of the area being repainted
+            if (intersects(g, 0, y, screenWidth, heightPlusVSpace)) {
+                // TODO: if bottom or top component, I should do differently?
+                // actually, it seems OK for now
+                if (selected) {
+                    paintComponentFocusDecorator(g, getStyle().getHighlightColor(), y + margin.getTop(),
+                            visibleHeight, c.acceptsInput());
+                }
 
-            c.paint(g, x, y + margin.getTop(), viewportWidth, availableViewportHeight, selected);
+                c.paint(g, x, y + margin.getTop(), viewportWidth, availableViewportHeight, selected);
+            }
             y += heightPlusVSpace;
             availableViewportHeight -= heightPlusVSpace;
         }
     }
 
+    /**
+     * @return true if the clip of <code>g</code> does not cover the whole content area
+     */
+    private boolean isPartialRepaint(Graphics g, int viewportHeight) {
+        return g.getClipX() > 0
+                || g.getClipY() > 0
+                || g.getClipX() + g.getClipWidth() < getScreenWidth()
+                || g.getClipY() + g.getClipHeight() < viewportHeight;
+    }
+
     private void paintComponentFocusDecorator(Graphics g, int highlightColor,
             int y, int visibleHeight, boolean acceptsInput) {
         getTheme().paintComponentFocusDecorator(g, highlightColor, y, visibleHeight, acceptsInput);
@@ -225,7 +274,11 @@ public class ComponentScreen extends DeviceScreen {
         // I need to render the scrollbar before this
         // g.clipRect(0, 0, theme.getContentWidth(), g.getClipHeight());
 
-        paintComponents(g, this, marginLeft, 0, theme.getContentWidth(), g.getClipHeight());
+        /*
+         * Lay out for the whole content area, not the clip: the clip is smaller when only part of
+         * the screen is repainted.
+         */
+        paintComponents(g, this, marginLeft, 0, theme.getContentWidth(), getContentAreaHeight(theme));
 
         // TODO: restore the clip, and translate back to the origin
         // g.translate(-marginLeft, 0);
@@ -233,9 +286,15 @@ public class ComponentScreen extends DeviceScreen {
         paintScrollBar(g, theme);
     }
 
+    private int getContentAreaHeight(Theme theme) {
+        return getScreenHeight() - theme.getTitleBarHeight() - theme.getMenubarHeight();
+    }
+
     public void paintScrollBar(Graphics g, Theme theme) {
         ScrollPosition scrollPos = componentPanel.getScrollPosition();
-        if (scrollPos != null) {
+        int scrollbarWidth = theme.getVerticalScrollbarWidth();
+        if (scrollPos != null
+                && intersects(g, getScreenWidth() - scrollbarWidth, 0, scrollbarWidth, getContentAreaHeight(theme))) {
             theme.paintVerticalScrollbar(g, scrollPos.getThumbOffset(), scrollPos.getTotalContentHeight());
         }
     }
@@ -43,9 +43,32 @@ public class ScrollManager implements ScrollHandler {
     boolean scrollingNeeded = false;
 
     public boolean userScrollingEnabled = true;
-    private Vector components;
+    private final ScrollableComponentList components;
 
-    public ScrollManager(Vector components) {
+    /*
+     * Incremented whenever the scroll position changes, so a cached layout can tell that it is
+     * stale.
+     */
+    private int version = 0;
+
+    /**
+     * Returned by {@link #moveSelection(KeyCode, int)} when the key did not move the selection.
+     */
+    public static final int SELECTION_NOT_MOVED = Integer.MIN_VALUE;
+
+    public ScrollManager(final Vector components) {
+        this(new ScrollableComponentList() {
+            public int size() {
+                return components.size();
+            }
+
+            public ScrollableComponent getComponent(int idx) {
+                return (ScrollableComponent) components.elementAt(idx);
+            }
+        });
+    }
+
+    public ScrollManager(ScrollableComponentList components) {
         this.components = components;
     }
 
@@ -81,6 +104,14 @@ public class ScrollManager implements ScrollHandler {
     
     public void resetToTop() {
         firstVisibleComponentIdx = 0;
+        version++;
+    }
+
+    /**
+     * @return a counter that changes every time the content is scrolled
+     */
+    public int getVersion() {
+        return version;
     }
 
     public boolean canScroll(ScrollDirection direction) {
@@ -131,6 +162,38 @@ public class ScrollManager implements ScrollHandler {
         return false;
     }
 
+    /**
+     * Moves a selected component index in response to an UP or DOWN key, scrolling the content
+     * when the selection is already at the edge of the visible components.
+     * 
+     * @param keyCode
+     * @param selectedComponentIdx
+     * @return the new selected component index or {@link #SELECTION_NOT_MOVED}
+     */
+    public int moveSelection(KeyCode keyCode, int selectedComponentIdx) {
+        if (keyCode != KeyCode.UP && keyCode != KeyCode.DOWN) {
+            return SELECTION_NOT_MOVED;
+        }
+        ScrollDirection direction = getScrollDirection(keyCode);
+        int delta = (direction == ScrollDirection.DOWN ? 1 : -1);
+
+        if ((direction == ScrollDirection.DOWN && selectedComponentIdx < getLastVisibleComponentIdx())
+                || (direction == ScrollDirection.UP && selectedComponentIdx > getFirstVisibleComponentIdx())) {
+            return selectedComponentIdx + delta;
+        }
+        /*
+         * TODO: This is still a little off when scrolling down to a big indivisible component.
+         * Write tests after I stabilize the UI.
+         */
+        int edgeComponentIdx = (direction == ScrollDirection.UP)
+                ? getFirstVisibleComponentIdx()
+                : getLastVisibleComponentIdx();
+        if (!getComponent(edgeComponentIdx).hasMore(direction)) {
+            edgeComponentIdx += delta;
+        }
+        return handleContentScrolling(keyCode) ? edgeComponentIdx : SELECTION_NOT_MOVED;
+    }
+
     // TODO: put this elsewhere
     public static ScrollDirection getScrollDirection(KeyCode keyCode) {
         return keyCode == KeyCode.UP ? ScrollDirection.UP : ScrollDirection.DOWN;
@@ -145,6 +208,7 @@ public class ScrollManager implements ScrollHandler {
     }
 
     public void scroll(ScrollDirection direction) {
+        version++;
         ScrollableComponent topComponent = getComponent(getFirstVisibleComponentIdx());
 
         if (topComponent.canScroll(direction)) {
@@ -155,7 +219,7 @@ public class ScrollManager implements ScrollHandler {
     }
 
     private ScrollableComponent getComponent(int idx) {
-        return (ScrollableComponent) components.elementAt(idx);
+        return components.getComponent(idx);
     }
 
     private void recalculateVisibleStartIdx(ScrollDirection direction, int componentSize) {
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2012 EDC
+ * 
+ * This file is part of Stepping Stone.
+ * 
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.j2me.ui.scroll;
+
+/**
+ * The components a {@link ScrollManager} scrolls through, by index. A panel that creates its
+ * components on demand implements this so the scroll manager only asks for the components at the
+ * edges of the viewport.
+ * 
+ * @author Greg Orlowski
+ */
+public interface ScrollableComponentList {
+
+    /**
+     * @return the total number of components, including the ones that have not been created
+     */
+    public int size();
+
+    /**
+     * @return the component at <code>idx</code>. Only called for components that are visible or
+     *         about to be scrolled into view.
+     */
+    public ScrollableComponent getComponent(int idx);
+
+}
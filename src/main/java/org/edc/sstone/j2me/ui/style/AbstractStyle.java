@@ -21,6 +21,7 @@ package org.edc.sstone.j2me.ui.style;
 import javax.microedition.lcdui.Graphics;
 
 import org.edc.sstone.j2me.core.Registry;
+import org.edc.sstone.j2me.font.FontFactory;
 import org.edc.sstone.j2me.font.IFont;
 import org.edc.sstone.ui.model.FixedSpacing;
 import org.edc.sstone.ui.model.FontStyle;
@@ -42,8 +43,25 @@ public abstract class AbstractStyle implements Style {
 
     protected float lineHeight = 1.1f;
 
+    /*
+     * The last font resolved by getFont() and what it was resolved from. A style's font is looked
+     * up several times per paint, so we only go back to the factory when the (possibly inherited)
+     * font style or the factory's generation changes.
+     */
+    private IFont resolvedFont;
+    private FontStyle resolvedFontStyle;
+    private int resolvedFontGeneration;
+
     public IFont getFont() {
-        return Registry.getManager().getFontFactory().getFont(getFontStyle());
+        FontFactory fontFactory = Registry.getManager().getFontFactory();
+        FontStyle fontStyle = getFontStyle();
+        int generation = fontFactory.getGeneration();
+        if (resolvedFont == null || fontStyle != resolvedFontStyle || generation != resolvedFontGeneration) {
+            resolvedFont = fontFactory.getFont(fontStyle);
+            resolvedFontStyle = fontStyle;
+            resolvedFontGeneration = generation;
+        }
+        return resolvedFont;
     }
 
     public float getLineHeight() {
@@ -44,10 +44,24 @@ public class ComponentStyle extends AbstractStyle {
     protected short animationPeriod = Constants.NUMBER_NOT_SET;
     private Style defaultStyle;
 
+    /*
+     * Incremented by every setter that can change the size of a component, so component panels
+     * know to measure their components again.
+     */
+    private static volatile int sizeGeneration = 0;
+
     public ComponentStyle(Style defaults) {
         this.defaultStyle = defaults;
     }
 
+    /**
+     * @return a counter that changes every time a style changes in a way that can change the size
+     *         of a component (font, line height, margin, padding or default style)
+     */
+    public static int getSizeGeneration() {
+        return sizeGeneration;
+    }
+
     /*
      * Getters + Setters
      */
@@ -64,6 +78,7 @@ public class ComponentStyle extends AbstractStyle {
             } else {
                 this.fontStyle = fontStyle;
             }
+            sizeGeneration++;
         }
     }
 
@@ -113,6 +128,7 @@ public class ComponentStyle extends AbstractStyle {
 
     public void setLineHeightByte(byte lineHeight) {
         this.lineHeight = ((float) lineHeight) / 10f;
+        sizeGeneration++;
     }
 
     /**
@@ -122,6 +138,7 @@ public class ComponentStyle extends AbstractStyle {
      */
     public void setDefaultStyle(Style defaultStyle) {
         this.defaultStyle = defaultStyle;
+        sizeGeneration++;
     }
 
     public void setTextAnchor(int anchor) {
@@ -134,11 +151,13 @@ public class ComponentStyle extends AbstractStyle {
 
     public void setMargin(Spacing margin) {
         this.margin = margin;
+        sizeGeneration++;
     }
 
     public void setPadding(short padding) {
         // do NOT allow negative padding
         this.padding = (short) Math.max(0, padding);
+        sizeGeneration++;
     }
 
 }
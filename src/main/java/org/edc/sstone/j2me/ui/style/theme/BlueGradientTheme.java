@@ -21,13 +21,16 @@ package org.edc.sstone.j2me.ui.style.theme;
 import javax.microedition.lcdui.Graphics;
 
 import org.edc.sstone.j2me.font.FontFactory;
-import org.edc.sstone.j2me.ui.util.GraphicsFunc;
+import org.edc.sstone.j2me.ui.util.GradientCache;
 
 /**
  * @author Greg Orlowski
  */
 public class BlueGradientTheme extends Theme {
 
+    // the title bar and menubar gradients
+    private final GradientCache gradients = new GradientCache(2);
+
     public BlueGradientTheme(FontFactory fontFactory, int screenWidth, int screenHeight) {
         super(fontFactory, screenWidth, screenHeight);
     }
@@ -36,7 +39,7 @@ public class BlueGradientTheme extends Theme {
         int primary = getTitleBarBackgroundColor();
         int secondary = getTitleBarHighlightColor();
 
-        GraphicsFunc.gradientFill(g, 0, 0, screenWidth, getTitleBarHeight(),
+        gradients.gradientFill(g, 0, 0, screenWidth, getTitleBarHeight(),
                 true, primary, secondary, 0.2f);
     }
 
@@ -47,7 +50,7 @@ public class BlueGradientTheme extends Theme {
         int primary = getMenubarBackgroundColor();
         int secondary = getMenubarHighlightColor();
 
-        GraphicsFunc.gradientFill(g, 0, getMenubarTop(), screenWidth, getMenubarHeight(),
+        gradients.gradientFill(g, 0, getMenubarTop(), screenWidth, getMenubarHeight(),
                 true, primary, secondary, 0.2f);
 
         paintMenubarButtonDividers(g);
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2012 EDC
+ *
+ * This file is part of Stepping Stone.
+ *
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.j2me.ui.util;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+/**
+ * Keeps the last few gradient fills as images, so painting a gradient (e.g., the title bar and
+ * menubar of {@link org.edc.sstone.j2me.ui.style.theme.BlueGradientTheme}) is one
+ * <code>drawImage</code> instead of a <code>setColor</code> and <code>drawLine</code> per line.
+ * A fill is identified by its size, direction, colors and peak; the position is not part of it.
+ * 
+ * @author Greg Orlowski
+ */
+public class GradientCache {
+
+    private final Image[] images;
+
+    // width, height, fillVertically, primaryColor, secondaryColor and maxSecondary of each image
+    private final int[][] keys;
+
+    // the slot replaced next when the cache is full
+    private int next = 0;
+
+    /**
+     * @param capacity
+     *            the number of different gradients to keep
+     */
+    public GradientCache(int capacity) {
+        images = new Image[capacity];
+        keys = new int[capacity][6];
+    }
+
+    /**
+     * Same as {@link GraphicsFunc#gradientFill}, but the gradient is rendered into an image the
+     * first time and copied after that.
+     */
+    public void gradientFill(
+            Graphics g,
+            int x, int y, int width, int height,
+            boolean fillVertically,
+            int primaryColor, int secondaryColor, float maxSecondary) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        int peak = Float.floatToIntBits(maxSecondary);
+        int vertical = fillVertically ? 1 : 0;
+
+        Image image = null;
+        for (int i = 0; i < images.length && image == null; i++) {
+            int[] key = keys[i];
+            if (images[i] != null
+                    && key[0] == width && key[1] == height && key[2] == vertical
+                    && key[3] == primaryColor && key[4] == secondaryColor && key[5] == peak) {
+                image = images[i];
+            }
+        }
+
+        if (image == null) {
+            image = createImage(width, height, fillVertically, primaryColor, secondaryColor, maxSecondary);
+            int[] key = keys[next];
+            key[0] = width;
+            key[1] = height;
+            key[2] = vertical;
+            key[3] = primaryColor;
+            key[4] = secondaryColor;
+            key[5] = peak;
+            images[next] = image;
+            next = (next + 1) % images.length;
+        }
+        g.drawImage(image, x, y, Graphics.TOP | Graphics.LEFT);
+    }
+
+    public void clear() {
+        for (int i = 0; i < images.length; i++) {
+            images[i] = null;
+        }
+    }
+
+    private static Image createImage(int width, int height, boolean fillVertically,
+            int primaryColor, int secondaryColor, float maxSecondary) {
+        int[] colors = GraphicsFunc.gradientColors(fillVertically ? height : width,
+                primaryColor, secondaryColor, maxSecondary);
+        int[] rgb = new int[width * height];
+        int i = 0;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                rgb[i++] = colors[fillVertically ? row : col];
+            }
+        }
+        return Image.createRGBImage(rgb, width, height, false);
+    }
+
+}
@@ -136,30 +136,12 @@ public class GraphicsFunc {
             int x, int y, int width, int height,
             boolean fillVertically,
             int primaryColor, int secondaryColor, float maxSecondary) {
-        // Break the primary color into red, green, and blue.
-        int pr = (primaryColor & 0xFF0000) >> 16;
-        int pg = (primaryColor & 0x00FF00) >> 8;
-        int pb = (primaryColor & 0x0000FF);
-
-        // Break the secondary color into red, green, and blue.
-        int sr = (secondaryColor & 0xFF0000) >> 16;
-        int sg = (secondaryColor & 0x00FF00) >> 8;
-        int sb = (secondaryColor & 0x0000FF);
-
-        // Draw a horizonal line for each pixel from the top to the bottom.
         int end = (fillVertically ? height : width);
+        int peak = (int) (maxSecondary * 65536);
 
+        // Draw a horizonal line for each pixel from the top to the bottom.
         for (int i = 0; i < end; i++) {
-            // Calculate the color for this line.
-            float p = (float) i / (float) end;
-            float v = Math.abs(maxSecondary - p);
-            float v2 = 1.0f - v;
-
-            int red = (int) (pr * v + sr * v2);
-            int green = (int) (pg * v + sg * v2);
-            int blue = (int) (pb * v + sb * v2);
-
-            g.setColor(red, green, blue);
+            g.setColor(gradientColor(i, end, primaryColor, secondaryColor, peak));
 
             // Draw the line.
             if (fillVertically) {
@@ -170,4 +152,41 @@ public class GraphicsFunc {
             }
         }
     }
+
+    /**
+     * Calculate the color of every line of a {@link #gradientFill gradient fill}. The colors are
+     * interpolated in 16.16 fixed point because many devices have no floating point hardware. This
+     * allocates an array of <code>length</code> colors, so it is meant for {@link GradientCache};
+     * {@link #gradientFill} computes each line's color as it draws.
+     * 
+     * @param length
+     *            the number of lines (the height of a vertical fill or the width of a horizontal
+     *            fill)
+     * @return the RGB color of each line
+     */
+    public static int[] gradientColors(int length, int primaryColor, int secondaryColor, float maxSecondary) {
+        int peak = (int) (maxSecondary * 65536);
+        int[] colors = new int[length];
+        for (int i = 0; i < length; i++) {
+            colors[i] = gradientColor(i, length, primaryColor, secondaryColor, peak);
+        }
+        return colors;
+    }
+
+    /**
+     * @param peak
+     *            <code>maxSecondary</code> in 16.16 fixed point
+     * @return the RGB color of line <code>i</code> of a gradient fill with <code>length</code> lines
+     */
+    private static int gradientColor(int i, int length, int primaryColor, int secondaryColor, int peak) {
+        // weights of the primary (v) and secondary (v2) color for this line
+        int p = (i << 16) / length;
+        int v = Math.abs(peak - p);
+        int v2 = 65536 - v;
+
+        int red = (((primaryColor >> 16) & 0xFF) * v + ((secondaryColor >> 16) & 0xFF) * v2) >> 16;
+        int green = (((primaryColor >> 8) & 0xFF) * v + ((secondaryColor >> 8) & 0xFF) * v2) >> 16;
+        int blue = ((primaryColor & 0xFF) * v + (secondaryColor & 0xFF) * v2) >> 16;
+        return (red << 16) | (green << 8) | blue;
+    }
 }
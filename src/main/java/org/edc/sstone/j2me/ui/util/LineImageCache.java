@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2012 EDC
+ *
+ * This file is part of Stepping Stone.
+ *
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.j2me.ui.util;
+
+import javax.microedition.lcdui.Image;
+
+import org.edc.sstone.j2me.font.IFont;
+
+/**
+ * A memory-bounded LRU cache of pre-rendered lines of text. Each owner (e.g., a text area) keeps
+ * an array of slots indexed by line number, and the cache keeps every entry in a single LRU list
+ * so the least recently drawn lines of <em>any</em> owner are evicted first. When an entry is
+ * evicted, its owner's slot is cleared.
+ *
+ * @author Greg Orlowski
+ */
+public class LineImageCache {
+
+    /*
+     * We do not know how the device stores mutable images, so assume 32-bit pixels to stay on the
+     * safe side of the budget.
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final int maxBytes;
+    private int usedBytes = 0;
+
+    // most recently used entry is at the head
+    private Entry head;
+    private Entry tail;
+
+    /**
+     * @param maxBytes
+     *            the (approximate) maximum amount of heap the cached images may consume
+     */
+    public LineImageCache(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static final class Entry {
+        private Image image;
+        private IFont font;
+        private int fontColor;
+        private int backgroundColor;
+        private int bytes;
+
+        private Entry[] slots;
+        private int slotIdx;
+
+        private Entry prev;
+        private Entry next;
+
+        private boolean matches(IFont font, int fontColor, int backgroundColor) {
+            return this.fontColor == fontColor
+                    && this.backgroundColor == backgroundColor
+                    && this.font.equals(font);
+        }
+    }
+
+    /**
+     * @return the cached image for the line in <code>slots[idx]</code> if it was rendered with the
+     *         same font and colors, otherwise <code>null</code>
+     */
+    public synchronized Image get(Entry[] slots, int idx, IFont font, int fontColor, int backgroundColor) {
+        Entry e = slots[idx];
+        if (e == null || !e.matches(font, fontColor, backgroundColor)) {
+            return null;
+        }
+        if (e != head) {
+            unlink(e);
+            linkFirst(e);
+        }
+        return e.image;
+    }
+
+    /**
+     * Cache a rendered line in <code>slots[idx]</code>, evicting the least recently used lines if
+     * the budget would be exceeded. Images larger than the whole budget are not cached.
+     */
+    public synchronized void put(Entry[] slots, int idx, Image image, IFont font, int fontColor,
+            int backgroundColor) {
+        if (slots[idx] != null) {
+            remove(slots[idx]);
+        }
+
+        int bytes = image.getWidth() * image.getHeight() * BYTES_PER_PIXEL;
+        if (bytes > maxBytes) {
+            return;
+        }
+        while (usedBytes + bytes > maxBytes && tail != null) {
+            remove(tail);
+        }
+
+        Entry e = new Entry();
+        e.image = image;
+        e.font = font;
+        e.fontColor = fontColor;
+        e.backgroundColor = backgroundColor;
+        e.bytes = bytes;
+        e.slots = slots;
+        e.slotIdx = idx;
+
+        slots[idx] = e;
+        usedBytes += bytes;
+        linkFirst(e);
+    }
+
+    /**
+     * Remove every cached line that belongs to <code>slots</code>, e.g., because the text was
+     * laid out again.
+     */
+    public synchronized void clear(Entry[] slots) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                remove(slots[i]);
+            }
+        }
+    }
+
+    /**
+     * Move the cached lines of <code>slots</code> into a larger array, e.g., because the owner's
+     * text was laid out further.
+     * 
+     * @return the new slots, which replace <code>slots</code>
+     */
+    public synchronized Entry[] grow(Entry[] slots, int length) {
+        Entry[] grown = new Entry[length];
+        System.arraycopy(slots, 0, grown, 0, Math.min(slots.length, length));
+        for (int i = 0; i < slots.length; i++) {
+            Entry e = slots[i];
+            if (e != null) {
+                if (i < length) {
+                    e.slots = grown;
+                } else {
+                    remove(e);
+                }
+            }
+        }
+        return grown;
+    }
+
+    public synchronized int getUsedBytes() {
+        return usedBytes;
+    }
+
+    private void remove(Entry e) {
+        unlink(e);
+        if (e.slots[e.slotIdx] == e) {
+            e.slots[e.slotIdx] = null;
+        }
+        usedBytes -= e.bytes;
+        e.image = null;
+        e.slots = null;
+    }
+
+    private void linkFirst(Entry e) {
+        e.prev = null;
+        e.next = head;
+        if (head != null) {
+            head.prev = e;
+        }
+        head = e;
+        if (tail == null) {
+            tail = e;
+        }
+    }
+
+    private void unlink(Entry e) {
+        if (e.prev != null) {
+            e.prev.next = e.next;
+        } else {
+            head = e.next;
+        }
+        if (e.next != null) {
+            e.next.prev = e.prev;
+        } else {
+            tail = e.prev;
+        }
+        e.prev = e.next = null;
+    }
+
+}
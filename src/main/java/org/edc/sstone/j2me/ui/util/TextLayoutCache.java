@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2012 EDC
+ *
+ * This file is part of Stepping Stone.
+ *
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.j2me.ui.util;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import org.edc.sstone.j2me.font.IFont;
+import org.edc.sstone.util.TextLayout;
+
+/**
+ * A memory-bounded LRU cache of laid out text keyed by the text, the font, the width the lines
+ * were broken at and the syllable separator. Screens are rebuilt when the user navigates back to
+ * them or when the magnification or theme changes, and with this cache their text is only broken
+ * into lines again if it has not been laid out with the same font and width recently.
+ *
+ * Cached layouts are shared, so they must not be modified. A layout that is not complete yet (see
+ * {@link TextLayout#layoutUntil(int)}) may be cached; whoever uses it next continues breaking it.
+ *
+ * @author Greg Orlowski
+ */
+public class TextLayoutCache {
+
+    /*
+     * Rough per-object costs used to keep the cache within its budget. We cannot measure the
+     * heap, so these err on the high side.
+     */
+    private static final int ENTRY_BYTES = 64;
+    private static final int LINE_BYTES = 12;
+    private static final int TOKEN_BYTES = 40;
+
+    private final int maxBytes;
+    private int usedBytes = 0;
+
+    private final Hashtable entries = new Hashtable();
+
+    // reused to look up entries without allocating a key
+    private final Entry probe = new Entry();
+
+    // most recently used entry is at the head
+    private Entry head;
+    private Entry tail;
+
+    private int hitCount = 0;
+    private int missCount = 0;
+
+    /**
+     * @param maxBytes
+     *            the (approximate) maximum amount of heap the cached layouts may consume
+     */
+    public TextLayoutCache(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    private static final class Entry {
+        private String text;
+        private IFont font;
+        private int maxWidth;
+        private char separator;
+        private boolean hasSeparator;
+        private boolean tokenized;
+        private int hash;
+
+        private TextLayout layout;
+        private Vector tokens;
+        private int bytes;
+
+        private Entry prev;
+        private Entry next;
+
+        private void setKey(String text, IFont font, int maxWidth, Character syllableSeparator,
+                boolean tokenized) {
+            this.text = text;
+            this.font = font;
+            this.maxWidth = maxWidth;
+            this.hasSeparator = syllableSeparator != null;
+            this.separator = hasSeparator ? syllableSeparator.charValue() : 0;
+            this.tokenized = tokenized;
+            this.hash = ((text.hashCode() * 31 + font.hashCode()) * 31 + maxWidth) * 31
+                    + separator + (tokenized ? 1 : 0);
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            if (!(obj instanceof Entry))
+                return false;
+            Entry other = (Entry) obj;
+            return hash == other.hash
+                    && maxWidth == other.maxWidth
+                    && separator == other.separator
+                    && hasSeparator == other.hasSeparator
+                    && tokenized == other.tokenized
+                    && font.equals(other.font)
+                    && text.equals(other.text);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * @param tokens
+     *            if not null, the tokens of the cached layout are appended to it. A layout that was
+     *            cached without tokens does not match.
+     * @return the cached layout of <code>text</code> or <code>null</code>
+     */
+    public synchronized TextLayout get(String text, IFont font, int maxWidth, Character syllableSeparator,
+            Vector tokens) {
+        probe.setKey(text, font, maxWidth, syllableSeparator, tokens != null);
+        Entry e = (Entry) entries.get(probe);
+        probe.text = null;
+        probe.font = null;
+        if (e == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        if (e != head) {
+            unlink(e);
+            linkFirst(e);
+        }
+        if (tokens != null) {
+            for (int i = 0; i < e.tokens.size(); i++) {
+                tokens.addElement(e.tokens.elementAt(i));
+            }
+        }
+        return e.layout;
+    }
+
+    /**
+     * Cache a layout, evicting the least recently used layouts if the budget would be exceeded.
+     * Layouts larger than the whole budget are not cached.
+     *
+     * @param tokens
+     *            the tokens that were collected while <code>layout</code> was broken into lines,
+     *            or null. The vector is copied.
+     */
+    public synchronized void put(String text, IFont font, int maxWidth, Character syllableSeparator,
+            TextLayout layout, Vector tokens) {
+        Entry e = new Entry();
+        e.setKey(text, font, maxWidth, syllableSeparator, tokens != null);
+
+        Entry old = (Entry) entries.get(e);
+        if (old != null) {
+            remove(old);
+        }
+
+        int tokenCount = tokens != null ? tokens.size() : 0;
+        int bytes = ENTRY_BYTES
+                + (layout.getChars().length * 2)
+                + (layout.getEstimatedLineCount() * LINE_BYTES)
+                + (tokenCount * TOKEN_BYTES);
+        if (bytes > maxBytes) {
+            return;
+        }
+        while (usedBytes + bytes > maxBytes && tail != null) {
+            remove(tail);
+        }
+
+        e.layout = layout;
+        if (tokens != null) {
+            e.tokens = new Vector(tokenCount);
+            for (int i = 0; i < tokenCount; i++) {
+                e.tokens.addElement(tokens.elementAt(i));
+            }
+        }
+        e.bytes = bytes;
+
+        entries.put(e, e);
+        usedBytes += bytes;
+        linkFirst(e);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        head = tail = null;
+        usedBytes = 0;
+    }
+
+    public synchronized int getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized String toString() {
+        return "TextLayoutCache[entries=" + entries.size() + ", bytes=" + usedBytes + "/" + maxBytes
+                + ", hits=" + hitCount + ", misses=" + missCount + "]";
+    }
+
+    private void remove(Entry e) {
+        unlink(e);
+        entries.remove(e);
+        usedBytes -= e.bytes;
+        e.layout = null;
+        e.tokens = null;
+    }
+
+    private void linkFirst(Entry e) {
+        e.prev = null;
+        e.next = head;
+        if (head != null) {
+            head.prev = e;
+        }
+        head = e;
+        if (tail == null) {
+            tail = e;
+        }
+    }
+
+    private void unlink(Entry e) {
+        if (e.prev != null) {
+            e.prev.next = e.next;
+        } else {
+            head = e.next;
+        }
+        if (e.next != null) {
+            e.next.prev = e.prev;
+        } else {
+            tail = e.prev;
+        }
+        e.prev = e.next = null;
+    }
+
+}
@@ -21,8 +21,6 @@ package org.edc.sstone.util;
 import java.util.Vector;
 
 import org.edc.sstone.j2me.font.IFont;
-import org.edc.sstone.util.StdLib;
-import org.edc.sstone.util.StringTokenizer;
 
 /**
  * @author Greg Orlowski
@@ -33,69 +31,11 @@ public class Text {
         splitLines(font, text, lines, null, maxWidth);
     }
 
-    private static boolean isLineBreak(String str) {
-        return "\n".equals(str) || "\r\n".equals(str) || "\r".equals(str);
-    }
-
     public static void splitLines(IFont font, String text, Vector lines, Vector tokens, int maxWidth,
             Character syllableSeparator) {
-        StringBuffer sb = new StringBuffer();
-        StringTokenizer st = null;
-
-        st = syllableSeparator == null
-                ? new StringTokenizer(text, " \t", "\n")
-                : new StringTokenizer(text, " \t", "\n", "");
-
-        int spaceWidth = font.stringWidth(" ");
-        int tokenWidth = 0;
-        boolean previousWasLineBreak = false;
-
-        TOKEN_LOOP: for (String token = null; st.hasMoreTokens();) {
-            token = st.nextToken();
-            if (token != null) {
-
-                if (isLineBreak(token)) {
-                    if (previousWasLineBreak) {
-                        lines.addElement(sb.toString());
-                        sb.delete(0, sb.length());
-                        lines.addElement("");
-                        previousWasLineBreak = false;
-                        continue TOKEN_LOOP;
-                    }
-                    previousWasLineBreak = true;
-                    continue TOKEN_LOOP;
-                } else {
-                    previousWasLineBreak = false;
-                }
-
-                tokenWidth = syllableSeparator == null
-                        ? font.stringWidth(token)
-                        : font.stringWidth(StdLib.removeChar(token, syllableSeparator.charValue()));
-
-                // If the token itself exceeds the width then just overrun the
-                // boundaries (maybe I need to clip when rendering?)
-                if (tokenWidth >= maxWidth) {
-                    if (sb.length() >= 0)
-                        lines.addElement(sb.toString());
-                    lines.addElement(token);
-                    if (tokens != null) {
-                        appendTokenCoordinates(lines, tokens, token, tokenWidth);
-                    }
-                } else if (strWidth(sb, font, spaceWidth, tokenWidth, syllableSeparator) >= maxWidth) {
-                    lines.addElement(sb.toString());
-
-                    sb.delete(0, sb.length());
-
-                    appendToken(sb, lines, tokens, token, tokenWidth, syllableSeparator);
-                } else {
-                    appendToken(sb, lines, tokens, token, tokenWidth, syllableSeparator);
-                }
-            }
-        }
-
-        // append leftovers
-        if (sb.length() > 0) {
-            lines.addElement(sb.toString());
+        TextLayout layout = layout(font, text, tokens, maxWidth, syllableSeparator);
+        for (int i = 0; i < layout.getLineCount(); i++) {
+            lines.addElement(layout.getLine(i));
         }
     }
 
@@ -103,45 +43,41 @@ public class Text {
         splitLines(font, text, lines, tokens, maxWidth, null);
     }
 
-    private static void appendToken(StringBuffer sb, Vector lines, Vector tokens, String token,
-            int tokenWidth, Character syllableSeparator) {
-
-        if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '-') {
-            sb.append(' ');
-        }
-        if (tokens != null) {
-            appendTokenCoordinates(sb, lines, tokens, token, tokenWidth, syllableSeparator);
-        }
-        sb.append(stripSyllableSeparator(token, syllableSeparator));
-    }
-
-    static String stripSyllableSeparator(String token, Character syllableSeparator) {
-        if (syllableSeparator == null)
-            return token;
-        return StdLib.removeChar(token, syllableSeparator.charValue());
-    }
-
-    private static int strWidth(StringBuffer sb, IFont font, int spaceWidth, int tokenWidth, Character syllableSeparator) {
-        int width = (syllableSeparator == null
-                ? font.stringWidth(sb.toString())
-                : font.stringWidth(StdLib.removeChar(sb.toString(), syllableSeparator.charValue()))) + tokenWidth;
-
-        // TODO: remove the hard-coded '-', which is here b/c we are calculating lines that may have
-        // a hyphenated word at the end.
-        return (sb.length() > 0 && sb.charAt(sb.length() - 1) == '-')
-                ? width
-                : width + spaceWidth;
-    }
-
-    static void appendTokenCoordinates(StringBuffer sb, Vector lines, Vector tokens, String token, int tokenWidth,
+    /**
+     * Break <code>text</code> into lines no wider than <code>maxWidth</code> in a single pass. The
+     * width of the current line is accumulated as tokens are appended, so every token is measured
+     * exactly once.
+     * 
+     * <ul>
+     * <li>Runs of spaces and tabs collapse to a single space. A single line break is treated like a
+     * space, and two consecutive line breaks end the current line and add an empty line.</li>
+     * <li>Without a syllable separator, a word may also be broken after a hyphen.</li>
+     * <li>With a syllable separator, the separator chars are removed from the displayed text, and a
+     * word that does not fit on a line is hyphenated at the last syllable boundary that fits. The
+     * rest of the word goes on the next line as a {@link Token#getContinuation() continuation} of
+     * its token.</li>
+     * <li>A token that is wider than <code>maxWidth</code> on its own (and cannot be hyphenated) is
+     * put on its own line.</li>
+     * </ul>
+     * 
+     * @param tokens
+     *            if not null, a {@link Token} is added for each token
+     * @return the laid out text
+     */
+    public static TextLayout layout(IFont font, String text, Vector tokens, int maxWidth,
             Character syllableSeparator) {
-        int startIdx = sb.length();
-        tokens.addElement(new Token(token, lines.size(), startIdx,
-                startIdx + stripSyllableSeparator(token, syllableSeparator).length(), tokenWidth));
+        TextLayout layout = new TextLayout(font, text, tokens, maxWidth, syllableSeparator);
+        layout.layoutUntil(Integer.MAX_VALUE);
+        return layout;
     }
 
-    private static void appendTokenCoordinates(Vector lines, Vector tokens, String token, int tokenWidth) {
-        tokens.addElement(new Token(token, lines.size() - 1, 0, token.length(), tokenWidth));
+    /**
+     * Same as {@link #layout(IFont, String, Vector, int, Character)}, but no lines are broken yet.
+     * Call {@link TextLayout#layoutUntil(int)} to break as many lines as are needed.
+     */
+    public static TextLayout startLayout(IFont font, String text, Vector tokens, int maxWidth,
+            Character syllableSeparator) {
+        return new TextLayout(font, text, tokens, maxWidth, syllableSeparator);
     }
 
     public static class Token {
@@ -149,14 +85,66 @@ public class Text {
         public final int startPos;
         public final int endPos;
         public final int tokenWidth;
+
+        /**
+         * The x offset in pixels of the token from the left edge of its line
+         */
+        public final int x;
+
+        /**
+         * @deprecated use {@link #getText()}. The token is a range of the source text, and on CLDC
+         *             substring() shares the chars of the source, so this costs one small String
+         *             per token rather than a copy of its text.
+         */
         public final String text;
 
+        // the rest of a word that was hyphenated at the end of the line
+        private final Token continuation;
+
         public Token(String text, int lineIdx, int startPos, int endPos, int tokenWidth) {
-            this.text = text;
+            this(text, 0, text.length(), lineIdx, startPos, endPos, 0, tokenWidth);
+        }
+
+        public Token(String source, int sourceStart, int sourceEnd, int lineIdx, int startPos, int endPos,
+                int x, int tokenWidth) {
+            this(source, sourceStart, sourceEnd, lineIdx, startPos, endPos, x, tokenWidth, null);
+        }
+
+        Token(String source, int sourceStart, int sourceEnd, int lineIdx, int startPos, int endPos, int x,
+                int tokenWidth, Token continuation) {
+            this.text = source.substring(sourceStart, sourceEnd);
             this.lineIdx = lineIdx;
             this.startPos = startPos;
             this.endPos = endPos;
+            this.x = x;
             this.tokenWidth = tokenWidth;
+            this.continuation = continuation;
+        }
+
+        /**
+         * @return the token as it appears in the source text (i.e., including syllable separators)
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return the piece of this token on the next line if the token was hyphenated, otherwise
+         *         null. The piece has the same source text as this token.
+         */
+        public Token getContinuation() {
+            return continuation;
+        }
+
+        /**
+         * @return the piece of this token on the last line it spans
+         */
+        public Token getLastPiece() {
+            Token t = this;
+            while (t.continuation != null) {
+                t = t.continuation;
+            }
+            return t;
         }
     }
 
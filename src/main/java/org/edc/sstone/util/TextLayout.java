@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2012 EDC
+ *
+ * This file is part of Stepping Stone.
+ *
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package org.edc.sstone.util;
+
+import java.util.Vector;
+
+import org.edc.sstone.j2me.font.IFont;
+import org.edc.sstone.j2me.font.TextFunc;
+
+/**
+ * The result of breaking a text into lines with {@link Text#layout}. The displayed text (with
+ * whitespace collapsed and syllable separators removed) is stored once in a char array, and each
+ * line is a range of that array plus its width in pixels, so no String is created per line or per
+ * token. The widest line and the font height are kept too, so the size of the text is known
+ * without measuring it again.
+ *
+ * A layout may be incomplete (see {@link Text#startLayout}): lines are then broken on demand by
+ * {@link #layoutUntil(int)}, and {@link #getEstimatedLineCount()} extrapolates the final number of
+ * lines from the part of the text that was laid out so far.
+ *
+ * @author Greg Orlowski
+ */
+public class TextLayout {
+
+    private final char[] chars;
+    private final int fontHeight;
+    private final int maxWidth;
+
+    private int maxLineWidth = 0;
+    private int lineCount = 0;
+    private int[] lineStarts;
+    private int[] lineEnds;
+    private int[] lineWidths;
+
+    /*
+     * Line breaking state. The source text, font and tokens are released once the layout is
+     * complete.
+     */
+    private String source;
+    private IFont font;
+    private Vector tokens;
+    private final boolean stripSeparator;
+    private final char separator;
+    private final int spaceWidth;
+    private final int hyphenWidth;
+
+    // syllable boundaries of the current token as offsets into its (stripped) chars
+    private int[] syllableBreaks;
+
+    /*
+     * The pieces of the token that is being placed, PIECE_SIZE ints each: line index, start and end
+     * position in the line, x and width. The token chain is only built once the whole token is
+     * placed, so a token is never changed after it is added to tokens.
+     */
+    private static final int PIECE_SIZE = 5;
+    private int[] pieces;
+    private int pieceCount;
+
+    private int sourcePos = 0;
+    private int outLen = 0;
+    private int lineStart = 0;
+    private int lineWidth = 0;
+    private boolean previousWasLineBreak = false;
+    private boolean joinWithPrevious = false;
+
+    TextLayout(IFont font, String text, Vector tokens, int maxWidth, Character syllableSeparator) {
+        /*
+         * The displayed text never has more chars than the source text: we only ever write a single
+         * space where the source had at least one whitespace or line break char.
+         */
+        this.chars = new char[text.length()];
+        this.fontHeight = font.getHeight();
+        this.maxWidth = maxWidth;
+        this.source = text;
+        this.font = font;
+        this.tokens = tokens;
+        this.stripSeparator = syllableSeparator != null;
+        this.separator = stripSeparator ? syllableSeparator.charValue() : 0;
+        this.spaceWidth = font.charWidth(' ');
+        this.hyphenWidth = stripSeparator ? font.charWidth('-') : 0;
+        this.syllableBreaks = stripSeparator ? new int[8] : null;
+        this.pieces = tokens != null ? new int[PIECE_SIZE * 2] : null;
+
+        int capacity = Math.max(4, chars.length / 32);
+        lineStarts = new int[capacity];
+        lineEnds = new int[capacity];
+        lineWidths = new int[capacity];
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r';
+    }
+
+    /**
+     * Continue breaking lines until there are at least <code>minLineCount</code> lines or the
+     * whole text is laid out.
+     *
+     * @return true if the whole text is laid out
+     */
+    public synchronized boolean layoutUntil(int minLineCount) {
+        String text = source;
+        if (text == null) {
+            return true;
+        }
+        int len = text.length();
+        char[] out = chars;
+        int i = sourcePos;
+
+        while (i < len && lineCount < minLineCount) {
+            char c = text.charAt(i);
+            if (isWhitespace(c)) {
+                joinWithPrevious = false;
+                i++;
+                continue;
+            }
+            if (isLineBreak(c)) {
+                joinWithPrevious = false;
+                if (c == '\r' && i + 1 < len && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                i++;
+                if (previousWasLineBreak) {
+                    addLine(lineStart, outLen, lineWidth);
+                    addLine(outLen, outLen, 0);
+                    lineStart = outLen;
+                    lineWidth = 0;
+                    previousWasLineBreak = false;
+                } else {
+                    previousWasLineBreak = true;
+                }
+                continue;
+            }
+            previousWasLineBreak = false;
+
+            boolean lineIsEmpty = outLen == lineStart;
+            int space = (lineIsEmpty || joinWithPrevious) ? 0 : 1;
+
+            // copy the token after a provisional space
+            int tokenSourceStart = i;
+            int tokenStart = outLen + space;
+            int tokenEnd = tokenStart;
+            int breakCount = 0;
+            joinWithPrevious = false;
+            for (; i < len; i++) {
+                c = text.charAt(i);
+                if (isWhitespace(c) || isLineBreak(c)) {
+                    break;
+                }
+                if (stripSeparator && c == separator) {
+                    // remember the syllable boundary as an offset into the token
+                    int offset = tokenEnd - tokenStart;
+                    if (offset > 0 && (breakCount == 0 || syllableBreaks[breakCount - 1] != offset)) {
+                        if (breakCount == syllableBreaks.length) {
+                            syllableBreaks = grow(syllableBreaks);
+                        }
+                        syllableBreaks[breakCount++] = offset;
+                    }
+                    continue;
+                }
+                out[tokenEnd++] = c;
+                if (!stripSeparator && c == '-' && tokenEnd - tokenStart > 1 && i + 1 < len
+                        && !isWhitespace(text.charAt(i + 1)) && !isLineBreak(text.charAt(i + 1))) {
+                    // break opportunity after a hyphen inside a word
+                    i++;
+                    joinWithPrevious = true;
+                    break;
+                }
+            }
+            int tokenLength = tokenEnd - tokenStart;
+            if (tokenLength == 0) {
+                // the token was nothing but syllable separators
+                continue;
+            }
+            // a trailing separator is not a place to break
+            while (breakCount > 0 && syllableBreaks[breakCount - 1] >= tokenLength) {
+                breakCount--;
+            }
+
+            /*
+             * Place the token one piece at a time. A piece that does not fit on the current line is
+             * hyphenated at the last syllable boundary that fits, and the rest of the token becomes
+             * the next piece on a new line. pieceStart is where the piece is in out[], and
+             * pieceOffset is where it starts in the token (not counting inserted hyphens).
+             */
+            pieceCount = 0;
+            int pieceStart = tokenStart;
+            int pieceOffset = 0;
+            int nextBreak = 0;
+            while (true) {
+                int pieceLength = tokenEnd - pieceStart;
+                while (nextBreak < breakCount && syllableBreaks[nextBreak] <= pieceOffset) {
+                    nextBreak++;
+                }
+                int usedWidth = lineIsEmpty ? 0 : lineWidth + (space * spaceWidth);
+                // a line must stay narrower than maxWidth
+                int available = maxWidth - 1 - usedWidth;
+                int fit = font.fitChars(out, pieceStart, pieceLength, available);
+
+                if (fit == pieceLength) {
+                    // the rest of the token fits on this line
+                    int pieceWidth = font.measureRun(out, pieceStart, pieceLength, null);
+                    if (space > 0) {
+                        out[outLen] = ' ';
+                    }
+                    addPiece(pieceStart - lineStart, pieceLength, usedWidth, pieceWidth);
+                    outLen = tokenEnd;
+                    lineWidth = usedWidth + pieceWidth;
+                    break;
+                }
+
+                // find the last syllable boundary at which the piece plus a hyphen fits
+                int splitOffset = -1;
+                int splitWidth = 0;
+                if (nextBreak < breakCount) {
+                    int fitWithHyphen = font.fitChars(out, pieceStart, fit, available - hyphenWidth);
+                    for (int b = nextBreak; b < breakCount; b++) {
+                        if (syllableBreaks[b] - pieceOffset > fitWithHyphen) {
+                            break;
+                        }
+                        splitOffset = syllableBreaks[b];
+                    }
+                    if (splitOffset >= 0) {
+                        int splitLength = splitOffset - pieceOffset;
+                        splitWidth = font.measureRun(out, pieceStart, splitLength, null) + hyphenWidth;
+                    }
+                }
+
+                if (splitOffset >= 0) {
+                    // hyphenate: the head ends this line and the tail starts the next one
+                    if (space > 0) {
+                        out[outLen] = ' ';
+                    }
+                    int split = pieceStart + (splitOffset - pieceOffset);
+                    System.arraycopy(out, split, out, split + 1, tokenEnd - split);
+                    out[split] = '-';
+                    tokenEnd++;
+                    addPiece(pieceStart - lineStart, split + 1 - pieceStart, usedWidth, splitWidth);
+                    addLine(lineStart, split + 1, usedWidth + splitWidth);
+                    outLen = lineStart = pieceStart = split + 1;
+                    pieceOffset = splitOffset;
+                    lineWidth = 0;
+                    lineIsEmpty = true;
+                    space = 0;
+                } else if (!lineIsEmpty) {
+                    // start a new line with this piece
+                    addLine(lineStart, outLen, lineWidth);
+                    if (space > 0) {
+                        System.arraycopy(out, pieceStart, out, outLen, pieceLength);
+                    }
+                    lineStart = pieceStart = outLen;
+                    tokenEnd = pieceStart + pieceLength;
+                    lineWidth = 0;
+                    lineIsEmpty = true;
+                    space = 0;
+                } else {
+                    // If the piece itself exceeds the width then just overrun the
+                    // boundaries (maybe I need to clip when rendering?)
+                    int pieceWidth = font.measureRun(out, pieceStart, pieceLength, null);
+                    addPiece(pieceStart - lineStart, pieceLength, 0, pieceWidth);
+                    outLen = tokenEnd;
+                    addLine(lineStart, outLen, pieceWidth);
+                    lineStart = outLen;
+                    lineWidth = 0;
+                    joinWithPrevious = false;
+                    break;
+                }
+            }
+            addToken(text, tokenSourceStart, i);
+        }
+        sourcePos = i;
+
+        if (i < len) {
+            return false;
+        }
+
+        // append leftovers
+        if (outLen > lineStart) {
+            addLine(lineStart, outLen, lineWidth);
+        }
+        source = null;
+        font = null;
+        tokens = null;
+        syllableBreaks = null;
+        pieces = null;
+        return true;
+    }
+
+    /**
+     * Record a piece of the current token (the whole token unless it is hyphenated) on the current
+     * line.
+     */
+    private void addPiece(int startPos, int length, int x, int width) {
+        if (tokens == null) {
+            return;
+        }
+        int p = pieceCount * PIECE_SIZE;
+        if (p == pieces.length) {
+            pieces = grow(pieces);
+        }
+        pieces[p] = lineCount;
+        pieces[p + 1] = startPos;
+        pieces[p + 2] = startPos + length;
+        pieces[p + 3] = x;
+        pieces[p + 4] = width;
+        pieceCount++;
+    }
+
+    /**
+     * Add the current token, with its later pieces chained as continuations.
+     */
+    private void addToken(String text, int sourceStart, int sourceEnd) {
+        if (tokens == null || pieceCount == 0) {
+            return;
+        }
+        Text.Token token = null;
+        for (int p = (pieceCount - 1) * PIECE_SIZE; p >= 0; p -= PIECE_SIZE) {
+            token = new Text.Token(text, sourceStart, sourceEnd, pieces[p], pieces[p + 1], pieces[p + 2],
+                    pieces[p + 3], pieces[p + 4], token);
+        }
+        tokens.addElement(token);
+    }
+
+    /**
+     * @return true if the whole text is laid out
+     */
+    public boolean isComplete() {
+        return source == null;
+    }
+
+    /**
+     * @return the number of lines if the layout is complete, otherwise an estimate extrapolated
+     *         from the lines and source chars laid out so far
+     */
+    public int getEstimatedLineCount() {
+        String text = source;
+        if (text == null) {
+            return lineCount;
+        }
+        int estimate = sourcePos > 0
+                ? (int) (((long) lineCount * text.length()) / sourcePos)
+                : 1;
+        return Math.max(lineCount + 1, estimate);
+    }
+
+    private void addLine(int start, int end, int width) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = grow(lineStarts);
+            lineEnds = grow(lineEnds);
+            lineWidths = grow(lineWidths);
+        }
+        lineStarts[lineCount] = start;
+        lineEnds[lineCount] = end;
+        lineWidths[lineCount] = width;
+        lineCount++;
+        if (width > maxLineWidth) {
+            maxLineWidth = width;
+        }
+    }
+
+    private static int[] grow(int[] arr) {
+        int[] ret = new int[arr.length * 2];
+        System.arraycopy(arr, 0, ret, 0, arr.length);
+        return ret;
+    }
+
+    /**
+     * @return the displayed text. Lines are ranges of this array; do not modify it.
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * @return the number of lines laid out so far
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the offset in {@link #getChars()} of the first char of line <code>idx</code>
+     */
+    public int getLineStart(int idx) {
+        return lineStarts[idx];
+    }
+
+    /**
+     * @return the offset in {@link #getChars()} after the last char of line <code>idx</code>
+     */
+    public int getLineEnd(int idx) {
+        return lineEnds[idx];
+    }
+
+    public int getLineLength(int idx) {
+        return lineEnds[idx] - lineStarts[idx];
+    }
+
+    /**
+     * @return the width in pixels of line <code>idx</code> in the font it was laid out with
+     */
+    public int getLineWidth(int idx) {
+        return lineWidths[idx];
+    }
+
+    /**
+     * @return the width in pixels of the widest line laid out so far
+     */
+    public int getMaxLineWidth() {
+        return maxLineWidth;
+    }
+
+    /**
+     * @return the width that lines were broken at
+     */
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    /**
+     * @return the height of the font the text was laid out with
+     */
+    public int getFontHeight() {
+        return fontHeight;
+    }
+
+    /**
+     * @param lineSpacing
+     *            the number of pixels between lines
+     * @param addSpaceAboveFirstLine
+     *            true if the line spacing is also added above the first line
+     * @return the height in pixels of all lines (estimated if the layout is not complete)
+     */
+    public int getHeight(int lineSpacing, boolean addSpaceAboveFirstLine) {
+        return TextFunc.getSegmentHeight(fontHeight, lineSpacing, getEstimatedLineCount(),
+                addSpaceAboveFirstLine);
+    }
+
+    /**
+     * @return line <code>idx</code> as a new String
+     */
+    public String getLine(int idx) {
+        return new String(chars, lineStarts[idx], lineEnds[idx] - lineStarts[idx]);
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2012 EDC
+ *
+ * This file is part of Stepping Stone.
+ *
+ * Stepping Stone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Stepping Stone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Stepping Stone.  If not, see <http://www.gnu.org/licenses/gpl.txt>.
+ */
+package net.sergetk.mobile.lcdui;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Offline (Java SE) converter from the v1 .fnt format to the v2 format read by
+ * {@link BitmapFont} (see <code>BitmapFont.FORMAT_V2</code>). The conversion does the per-glyph
+ * work the v1 loader does on the device: it resolves width aliases, lays out the glyph
+ * coordinates, sorts the character index and computes the advance table. The PNG is copied as-is.
+ *
+ * <pre>
+ * java net.sergetk.mobile.lcdui.FontConverter OUTPUT_DIR FONT_FILE...
+ * </pre>
+ *
+ * @author Greg Orlowski
+ */
+public class FontConverter {
+
+    private static final int FORMAT_V2 = 2;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: FontConverter OUTPUT_DIR FONT_FILE...");
+            System.exit(1);
+        }
+        File outputDir = new File(args[0]);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create output directory: " + outputDir);
+        }
+        for (int i = 1; i < args.length; i++) {
+            File in = new File(args[i]);
+            File out = new File(outputDir, in.getName());
+            if (convert(in, out)) {
+                System.out.println("Converted " + in + " -> " + out);
+            } else {
+                System.out.println("Skipped " + in + " (not a v1 font)");
+            }
+        }
+    }
+
+    /**
+     * @return false if <code>in</code> is not a v1 font file
+     */
+    public static boolean convert(File in, File out) throws IOException {
+        DataInputStream data = new DataInputStream(new FileInputStream(in));
+        int height, baseline, xIndent, yIndent, spaceWidth;
+        String characterMap;
+        int[] widths;
+        byte[] png;
+        try {
+            int version = data.readByte();
+            if (version >= FORMAT_V2) {
+                return false;
+            }
+            height = data.readByte();
+            baseline = data.readByte();
+            xIndent = data.readByte();
+            yIndent = data.readByte();
+            spaceWidth = data.readByte();
+
+            characterMap = data.readUTF();
+            widths = new int[characterMap.length()];
+            for (int i = 0; i < widths.length; i++) {
+                widths[i] = data.readByte();
+            }
+            data.skipBytes(1); // the number of PNGs, which is always 1
+            png = new byte[data.readShort()];
+            data.readFully(png);
+        } finally {
+            data.close();
+        }
+
+        int count = widths.length;
+
+        // lay out the glyphs exactly like the v1 loader in BitmapFont does
+        int[] x = new int[count];
+        int[] y = new int[count];
+        int curX = 0, curY = 0;
+        for (int i = 0; i < count; i++) {
+            if (widths[i] < 0) {
+                int sourceIndex = -widths[i];
+                widths[i] = widths[sourceIndex];
+                x[i] = x[sourceIndex];
+                y[i] = y[sourceIndex];
+            } else {
+                x[i] = curX;
+                y[i] = curY;
+                curX += widths[i];
+            }
+        }
+
+        // sorted character index. Space is never mapped, and the lowest glyph index wins for
+        // characters that appear more than once in the map.
+        char[] chars = new char[count];
+        short[] indexes = new short[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            char c = characterMap.charAt(i);
+            if (c == ' ') {
+                continue;
+            }
+            int pos = n;
+            while (pos > 0 && chars[pos - 1] > c) {
+                pos--;
+            }
+            if (pos > 0 && chars[pos - 1] == c) {
+                continue;
+            }
+            System.arraycopy(chars, pos, chars, pos + 1, n - pos);
+            System.arraycopy(indexes, pos, indexes, pos + 1, n - pos);
+            chars[pos] = c;
+            indexes[pos] = (short) i;
+            n++;
+        }
+
+        DataOutputStream os = new DataOutputStream(new FileOutputStream(out));
+        try {
+            os.writeByte(FORMAT_V2);
+            os.writeByte(height);
+            os.writeByte(baseline);
+            os.writeByte(xIndent);
+            os.writeByte(yIndent);
+            os.writeByte(spaceWidth);
+
+            os.writeShort(count);
+            os.writeShort(n);
+            for (int i = 0; i < n; i++) {
+                os.writeChar(chars[i]);
+            }
+            for (int i = 0; i < n; i++) {
+                os.writeShort(indexes[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                os.writeShort(x[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                os.writeShort(y[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                os.writeByte(widths[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                os.writeByte(widths[i] + xIndent);
+            }
+
+            os.writeShort(png.length);
+            os.write(png);
+        } finally {
+            os.close();
+        }
+        return true;
+    }
+
+}